@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.resourcemanager.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+
+/**
+ * Metrics of the ApplicationMasterService allocate path. All times are in
+ * microseconds. Besides the phase timers there is one allocate rate per
+ * queue, created on the first heartbeat of an application in that queue.
+ */
+@InterfaceAudience.Private
+@Metrics(about="ApplicationMasterService metrics", context="yarn")
+public class ApplicationMasterServiceMetrics {
+  private static ApplicationMasterServiceMetrics instance;
+
+  final MetricsRegistry registry =
+      new MetricsRegistry("ApplicationMasterService");
+
+  @Metric("Time to build preemption messages, in microseconds")
+  MutableRate preemptionMessageBuild;
+  @Metric("Preemption messages resent unchanged from the previous heartbeat")
+  MutableCounterLong preemptionMessagesReused;
+
+  @Metric("Time of a whole allocate call") MutableRate allocate;
+  @Metric("Time to authorize an allocate call") MutableRate allocateAuthorize;
+  @Metric("Time to validate the asks, releases and blacklist of an allocate call")
+  MutableRate allocateValidate;
+  @Metric("Time spent in the scheduler during an allocate call")
+  MutableRate allocateScheduler;
+  @Metric("Time to build the node reports of an allocate response")
+  MutableRate allocateNodeReports;
+  @Metric("Time to create the NM tokens of an allocate response")
+  MutableRate allocateNMTokens;
+
+  @Metric("Allocate polls answered without calling the busy scheduler")
+  MutableCounterLong allocateSchedulerSkipped;
+  @Metric("Time allocate calls waited for a scheduler permit")
+  MutableRate allocateSchedulerPermitWait;
+
+  @Metric("Resource requests received in allocate calls")
+  MutableCounterLong allocateAsks;
+  @Metric("Containers handed out in allocate responses")
+  MutableCounterLong allocateAllocatedContainers;
+  @Metric("Completed container statuses handed out in allocate responses")
+  MutableCounterLong allocateCompletedContainers;
+  @Metric("Serialized size of allocate responses, in bytes")
+  MutableRate allocateResponseBytes;
+
+  private final ConcurrentMap<String, MutableRate> queueAllocate =
+      new ConcurrentHashMap<String, MutableRate>();
+
+  ApplicationMasterServiceMetrics() {
+  }
+
+  public static synchronized ApplicationMasterServiceMetrics getMetrics() {
+    if (instance == null) {
+      instance = DefaultMetricsSystem.instance().register(
+          "ApplicationMasterServiceMetrics", null,
+          new ApplicationMasterServiceMetrics());
+    }
+    return instance;
+  }
+
+  public void addPreemptionMessageBuildTime(long micros) {
+    preemptionMessageBuild.add(micros);
+  }
+
+  public void incrPreemptionMessagesReused() {
+    preemptionMessagesReused.incr();
+  }
+
+  public void addAllocateAuthorizeTime(long micros) {
+    allocateAuthorize.add(micros);
+  }
+
+  public void addAllocateValidateTime(long micros) {
+    allocateValidate.add(micros);
+  }
+
+  public void addAllocateSchedulerTime(long micros) {
+    allocateScheduler.add(micros);
+  }
+
+  public void incrAllocateSchedulerSkipped() {
+    allocateSchedulerSkipped.incr();
+  }
+
+  public void addAllocateSchedulerPermitWaitTime(long micros) {
+    allocateSchedulerPermitWait.add(micros);
+  }
+
+  public void addAllocateNodeReportsTime(long micros) {
+    allocateNodeReports.add(micros);
+  }
+
+  public void addAllocateNMTokensTime(long micros) {
+    allocateNMTokens.add(micros);
+  }
+
+  /**
+   * Records a finished allocate call of an application in <code>queue</code>.
+   */
+  public void addAllocate(String queue, long micros, int asks,
+      int allocatedContainers, int completedContainers, long responseBytes) {
+    allocate.add(micros);
+    getQueueAllocate(queue).add(micros);
+    allocateAsks.incr(asks);
+    allocateAllocatedContainers.incr(allocatedContainers);
+    allocateCompletedContainers.incr(completedContainers);
+    if (responseBytes >= 0) {
+      allocateResponseBytes.add(responseBytes);
+    }
+  }
+
+  private MutableRate getQueueAllocate(String queue) {
+    MutableRate rate = queueAllocate.get(queue);
+    if (rate == null) {
+      synchronized (registry) {
+        rate = queueAllocate.get(queue);
+        if (rate == null) {
+          rate = registry.newRate("Queue_" + queue + "_Allocate",
+              "Time of allocate calls of applications in queue " + queue,
+              false);
+          queueAllocate.put(queue, rate);
+        }
+      }
+    }
+    return rate;
+  }
+}
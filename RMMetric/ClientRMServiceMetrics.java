@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.yarn.server.resourcemanager.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+
+/**
+ * Metrics of the ClientRMService. All times are in microseconds. While
+ * client calls are rate limited they are also counted per user, in a
+ * counter created on the user's first call; users beyond the first
+ * {@link #MAX_USER_COUNTERS} share one counter.
+ */
+@InterfaceAudience.Private
+@Metrics(about="ClientRMService metrics", context="yarn")
+public class ClientRMServiceMetrics {
+  private static ClientRMServiceMetrics instance;
+
+  // metrics2 counters cannot be removed, so their number is capped
+  static final int MAX_USER_COUNTERS = 100;
+
+  final MetricsRegistry registry = new MetricsRegistry("ClientRMService");
+
+  @Metric("Time to evaluate application and queue ACLs")
+  MutableRate aclCheck;
+  @Metric("Application access decisions answered from the cache")
+  MutableCounterLong aclCacheHits;
+  @Metric("Calls rejected by the per-user rate limit")
+  MutableCounterLong callsThrottled;
+  @Metric("Client calls of users without a counter of their own")
+  MutableCounterLong otherUserCalls;
+
+  private final ConcurrentMap<String, MutableCounterLong> userCalls =
+      new ConcurrentHashMap<String, MutableCounterLong>();
+
+  ClientRMServiceMetrics() {
+  }
+
+  public static synchronized ClientRMServiceMetrics getMetrics() {
+    if (instance == null) {
+      instance = DefaultMetricsSystem.instance().register(
+          "ClientRMServiceMetrics", null, new ClientRMServiceMetrics());
+    }
+    return instance;
+  }
+
+  public void addAclCheckTime(long micros) {
+    aclCheck.add(micros);
+  }
+
+  public void incrAclCacheHits() {
+    aclCacheHits.incr();
+  }
+
+  public void incrCallsThrottled() {
+    callsThrottled.incr();
+  }
+
+  public void incrUserCalls(String user) {
+    MutableCounterLong calls = userCalls.get(user);
+    if (calls == null) {
+      synchronized (registry) {
+        calls = userCalls.get(user);
+        if (calls == null) {
+          if (userCalls.size() >= MAX_USER_COUNTERS) {
+            otherUserCalls.incr();
+            return;
+          }
+          calls = registry.newCounter("User_" + user + "_Calls",
+              "Client calls of user " + user, 0L);
+          userCalls.put(user, calls);
+        }
+      }
+    }
+    calls.incr();
+  }
+}
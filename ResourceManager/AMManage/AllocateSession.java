@@ -0,0 +1,367 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.impl.pb.AllocateResponsePBImpl;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.PreemptionMessage;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
+import org.apache.hadoop.yarn.proto.YarnServiceProtos.AllocateResponseProto;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.Allocation;
+
+/**
+ * Per-attempt heartbeat state of the {@link ApplicationMasterService}.
+ *
+ * A heartbeat is processed by the thread that wins the compare-and-set of
+ * the response id from the last response's id to the next one. The response
+ * is published once it is complete; a thread that loses the race for the
+ * same heartbeat waits for it and replays it as a duplicate. Only that
+ * contended path and parked long-polls ever take the session's monitor.
+ *
+ * The last response is only needed again if the AM repeats its heartbeat,
+ * so it is kept as the immutable protobuf the RPC layer writes to the wire
+ * rather than as a record with its builders and record wrappers. Publishing
+ * the next response drops it.
+ */
+class AllocateSession {
+
+  /** Response id plus the last response, swapped atomically. */
+  private static final class PublishedResponse {
+    private final int responseId;
+    private final AllocateResponseProto proto;
+    // only for records that are not protobuf backed
+    private final AllocateResponse response;
+
+    PublishedResponse(int responseId, AllocateResponseProto proto,
+        AllocateResponse response) {
+      this.responseId = responseId;
+      this.proto = proto;
+      this.response = response;
+    }
+  }
+
+  private final ApplicationAttemptId attemptId;
+  private final AtomicReference<PublishedResponse> lastResponse;
+  // id of the response that is being, or has last been, produced
+  private final AtomicInteger claimedResponseId;
+  private final ValidatedAskCache validatedAsks = new ValidatedAskCache();
+
+  // last preemption message and the allocation contents it was built from
+  private PreemptionMessage lastPreemptionMessage;
+  private Set<ContainerId> lastStrictPreemptions;
+  private Set<ContainerId> lastContainerPreemptions;
+  private List<ResourceRequest> lastResourcePreemptions;
+
+  // bumped whenever the scheduler may have news for the attempt
+  private final AtomicLong allocationUpdates = new AtomicLong();
+  // set once the AM unregisters, heartbeats are no longer parked
+  private volatile boolean finishing;
+
+  // headroom and preemptions of the last scheduler call, without containers
+  private volatile Allocation lastAllocation;
+
+  // allocate timings, only written by the thread holding the claim
+  private volatile String queue;
+  private volatile long allocateCount;
+  private volatile long allocateTotalMicros;
+  private volatile long allocateLastMicros;
+  private volatile long allocateMaxMicros;
+
+  AllocateSession(ApplicationAttemptId attemptId,
+      AllocateResponse initialResponse) {
+    this.attemptId = attemptId;
+    this.lastResponse = new AtomicReference<PublishedResponse>(
+        new PublishedResponse(initialResponse.getResponseId(), null,
+            initialResponse));
+    this.claimedResponseId =
+        new AtomicInteger(initialResponse.getResponseId());
+  }
+
+  ApplicationAttemptId getAttemptId() {
+    return attemptId;
+  }
+
+  ValidatedAskCache getValidatedAsks() {
+    return validatedAsks;
+  }
+
+  /**
+   * @return the preemption message of an earlier heartbeat if the allocation
+   *         asks for exactly the same preemptions, null otherwise
+   */
+  synchronized PreemptionMessage getPreemptionMessage(Allocation allocation) {
+    if (lastPreemptionMessage != null
+        && equal(lastStrictPreemptions,
+            allocation.getStrictContainerPreemptions())
+        && equal(lastContainerPreemptions,
+            allocation.getContainerPreemptions())
+        && equal(lastResourcePreemptions,
+            allocation.getResourcePreemptions())) {
+      return lastPreemptionMessage;
+    }
+    return null;
+  }
+
+  /**
+   * Remembers <code>message</code> together with copies of the preemptions
+   * it was built from; the scheduler may keep changing its own sets and
+   * requests after handing them out.
+   */
+  synchronized void setPreemptionMessage(Allocation allocation,
+      PreemptionMessage message) {
+    lastPreemptionMessage = message;
+    lastStrictPreemptions = copy(allocation.getStrictContainerPreemptions());
+    lastContainerPreemptions = copy(allocation.getContainerPreemptions());
+    lastResourcePreemptions = copy(allocation.getResourcePreemptions());
+  }
+
+  private static Set<ContainerId> copy(Set<ContainerId> containers) {
+    return containers == null ? null : new HashSet<ContainerId>(containers);
+  }
+
+  private static List<ResourceRequest> copy(List<ResourceRequest> requests) {
+    if (requests == null) {
+      return null;
+    }
+    List<ResourceRequest> copies =
+        new ArrayList<ResourceRequest>(requests.size());
+    for (ResourceRequest request : requests) {
+      Priority priority = request.getPriority();
+      Resource capability = request.getCapability();
+      copies.add(ResourceRequest.newInstance(
+          priority == null ? null
+              : Priority.newInstance(priority.getPriority()),
+          request.getResourceName(),
+          capability == null ? null
+              : Resource.newInstance(capability.getMemory(),
+                  capability.getVirtualCores()),
+          request.getNumContainers(), request.getRelaxLocality()));
+    }
+    return copies;
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == b || (a != null && a.equals(b));
+  }
+
+  Allocation getLastAllocation() {
+    return lastAllocation;
+  }
+
+  void setLastAllocation(Allocation allocation) {
+    this.lastAllocation = new Allocation(
+        Collections.<Container>emptyList(),
+        allocation.getResourceLimit(),
+        allocation.getStrictContainerPreemptions(),
+        allocation.getContainerPreemptions(),
+        allocation.getResourcePreemptions());
+  }
+
+  long getAllocationUpdates() {
+    return allocationUpdates.get();
+  }
+
+  /**
+   * Signals that containers were allocated, completed or marked for
+   * preemption, or that the attempt went away, waking a parked long-poll.
+   */
+  void allocationUpdated() {
+    allocationUpdates.incrementAndGet();
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until {@link #allocationUpdated()} is called after
+   * <code>seen</code> was read from {@link #getAllocationUpdates()}.
+   * @return false if <code>timeoutMs</code> expired first
+   */
+  boolean awaitAllocationUpdate(long seen, long timeoutMs)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (this) {
+      long remaining;
+      while (allocationUpdates.get() == seen
+          && (remaining = deadline - System.currentTimeMillis()) > 0) {
+        wait(remaining);
+      }
+      return allocationUpdates.get() != seen;
+    }
+  }
+
+  boolean isFinishing() {
+    return finishing;
+  }
+
+  /**
+   * Marks the AM as unregistering and wakes a parked long-poll, which then
+   * answers right away and gives up its claim.
+   */
+  void setFinishing() {
+    finishing = true;
+    allocationUpdated();
+  }
+
+  void recordAllocate(String queue, long micros) {
+    this.queue = queue;
+    allocateCount++;
+    allocateTotalMicros += micros;
+    allocateLastMicros = micros;
+    if (micros > allocateMaxMicros) {
+      allocateMaxMicros = micros;
+    }
+  }
+
+  long getAllocateMaxMicros() {
+    return allocateMaxMicros;
+  }
+
+  /**
+   * @return attempt id, queue, allocate count and the average, last and
+   *         maximum allocate time in microseconds
+   */
+  String getAllocateSummary() {
+    long count = allocateCount;
+    return attemptId + " queue=" + queue + " allocates=" + count
+        + " avgMicros=" + (count == 0 ? 0 : allocateTotalMicros / count)
+        + " lastMicros=" + allocateLastMicros
+        + " maxMicros=" + allocateMaxMicros;
+  }
+
+  int getLastResponseId() {
+    return lastResponse.get().responseId;
+  }
+
+  /**
+   * @return a copy of the last published response, for replaying it to an
+   *         AM that repeats a heartbeat
+   */
+  AllocateResponse getLastResponse() {
+    return decode(lastResponse.get());
+  }
+
+  boolean isRegistered() {
+    return getLastResponseId() >= 0;
+  }
+
+  /**
+   * Claims the right to produce the response following
+   * <code>lastResponseId</code>.
+   * @return false if another thread already claimed it
+   */
+  boolean claim(int lastResponseId) {
+    return claimedResponseId.compareAndSet(lastResponseId, lastResponseId + 1);
+  }
+
+  /**
+   * Claims the response id following the last published one for work that
+   * must not overlap a heartbeat, waiting for a heartbeat in progress to be
+   * published first. Heartbeats arriving meanwhile wait until the claim is
+   * given up with {@link #release(int)}.
+   * @return the last response id, to be passed to {@link #release(int)}
+   */
+  int claimExclusive() throws InterruptedException {
+    while (true) {
+      int lastResponseId = getLastResponseId();
+      if (claim(lastResponseId)) {
+        return lastResponseId;
+      }
+      awaitResponse(lastResponseId + 1);
+    }
+  }
+
+  /**
+   * Publishes the response for a previously claimed id.
+   * @return the serialized size of the response in bytes, -1 if unknown
+   */
+  int publish(AllocateResponse response) {
+    PublishedResponse published;
+    int size = -1;
+    if (response instanceof AllocateResponsePBImpl) {
+      // the proto built here, and its memoized size, are the ones later
+      // written to the wire
+      AllocateResponseProto proto =
+          ((AllocateResponsePBImpl) response).getProto();
+      size = proto.getSerializedSize();
+      published = new PublishedResponse(response.getResponseId(), proto,
+          null);
+    } else {
+      published = new PublishedResponse(response.getResponseId(), null,
+          response);
+    }
+    lastResponse.set(published);
+    synchronized (this) {
+      notifyAll();
+    }
+    return size;
+  }
+
+  /**
+   * Gives up a claim without publishing a response, e.g. when the request
+   * failed validation, so the AM can retry the same heartbeat.
+   */
+  void release(int lastResponseId) {
+    claimedResponseId.compareAndSet(lastResponseId + 1, lastResponseId);
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the response with the given id is published, or the claim
+   * on it was released.
+   * @return the published response, or null if the claim was released
+   */
+  AllocateResponse awaitResponse(int responseId) throws InterruptedException {
+    synchronized (this) {
+      while (true) {
+        PublishedResponse published = lastResponse.get();
+        if (published.responseId >= responseId) {
+          return decode(published);
+        }
+        if (claimedResponseId.get() < responseId) {
+          return null;
+        }
+        wait();
+      }
+    }
+  }
+
+  private static AllocateResponse decode(PublishedResponse published) {
+    if (published.proto == null) {
+      return published.response;
+    }
+    return new AllocateResponsePBImpl(published.proto);
+  }
+}
@@ -20,12 +20,19 @@ package org.apache.hadoop.yarn.server.resourcemanager;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.security.AccessController;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import javax.management.ObjectName;
+import javax.security.auth.Subject;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +40,7 @@ import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.security.SaslRpcServer;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.PolicyProvider;
@@ -50,6 +58,7 @@ import org.apache.hadoop.yarn.api.records.AMCommand;
 import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.NodeReport;
 import org.apache.hadoop.yarn.api.records.PreemptionContainer;
 import org.apache.hadoop.yarn.api.records.PreemptionContract;
@@ -60,49 +69,103 @@ import org.apache.hadoop.yarn.api.records.ResourceBlacklistRequest;
 import org.apache.hadoop.yarn.api.records.ResourceRequest;
 import org.apache.hadoop.yarn.api.records.StrictPreemptionContract;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.exceptions.InvalidApplicationMasterRequestException;
 import org.apache.hadoop.yarn.exceptions.InvalidContainerReleaseException;
 import org.apache.hadoop.yarn.exceptions.InvalidResourceBlacklistRequestException;
 import org.apache.hadoop.yarn.exceptions.InvalidResourceRequestException;
 import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
 import org.apache.hadoop.yarn.factories.RecordFactory;
 import org.apache.hadoop.yarn.factory.providers.RecordFactoryProvider;
 import org.apache.hadoop.yarn.ipc.RPCUtil;
 import org.apache.hadoop.yarn.ipc.YarnRPC;
 import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
 import org.apache.hadoop.yarn.server.resourcemanager.RMAuditLogger.AuditConstants;
+import org.apache.hadoop.yarn.server.resourcemanager.metrics.ApplicationMasterServiceMetrics;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMAppState;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.AMLivelinessMonitor;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.RMAppAttempt;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.RMAppAttemptEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.RMAppAttemptEventType;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.event.RMAppAttemptRegistrationEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.event.RMAppAttemptStatusupdateEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.event.RMAppAttemptUnregistrationEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.Allocation;
-import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNodeReport;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.ContainerPreemptEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.ContainerPreemptEventType;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerUtils;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.YarnScheduler;
 import org.apache.hadoop.yarn.server.resourcemanager.security.authorize.RMPolicyProvider;
-import org.apache.hadoop.yarn.server.utils.BuilderUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 @SuppressWarnings("unchecked")
 @Private
 //Ӧù
 public class ApplicationMasterService extends AbstractService implements
-    ApplicationMasterProtocol {
+    ApplicationMasterProtocol, ApplicationMasterServiceMXBean {
   private static final Log LOG = LogFactory.getLog(ApplicationMasterService.class);
+
+  /**
+   * How long an allocate that carries no asks, releases or blacklist changes
+   * is held until there is something to return, 0 to answer right away.
+   * Must stay below half of the AM expiry interval.
+   */
+  public static final String RM_SCHEDULER_ALLOCATE_LONG_POLL_TIMEOUT_MS =
+      YarnConfiguration.RM_PREFIX + "scheduler.allocate-long-poll.timeout-ms";
+  public static final long DEFAULT_RM_SCHEDULER_ALLOCATE_LONG_POLL_TIMEOUT_MS =
+      0;
+
+  /** Maximum number of allocate calls parked at the same time. */
+  public static final String RM_SCHEDULER_ALLOCATE_LONG_POLL_MAX_PARKED =
+      YarnConfiguration.RM_PREFIX + "scheduler.allocate-long-poll.max-parked";
+
+  /**
+   * Maximum number of allocate calls inside the scheduler at the same time,
+   * 0 for no limit. Once reached, allocate calls that only poll are answered
+   * from the attempt's last allocation, keeping handlers free for duplicate
+   * heartbeats, registration and unregistration.
+   */
+  public static final String RM_SCHEDULER_ALLOCATE_MAX_CONCURRENT =
+      YarnConfiguration.RM_PREFIX + "scheduler.allocate.max-concurrent";
+  public static final int DEFAULT_RM_SCHEDULER_ALLOCATE_MAX_CONCURRENT = 0;
+
+  private static final List<ResourceRequest> EMPTY_ASK =
+      Collections.emptyList();
+  private static final List<ContainerId> EMPTY_RELEASE =
+      Collections.emptyList();
+
   private final AMLivelinessMonitor amLivelinessMonitor;
   private YarnScheduler rScheduler;
   private InetSocketAddress bindAddress;
   private Server server;
   private final RecordFactory recordFactory =
       RecordFactoryProvider.getRecordFactory(null);
-  private final ConcurrentMap<ApplicationAttemptId, AllocateResponse> responseMap =
-      new ConcurrentHashMap<ApplicationAttemptId, AllocateResponse>();
+  private final ConcurrentMap<ApplicationAttemptId, AllocateSession> responseMap =
+      new ConcurrentHashMap<ApplicationAttemptId, AllocateSession>();
   private final AllocateResponse resync =
       recordFactory.newRecordInstance(AllocateResponse.class);
   private final RMContext rmContext;
+  private final ApplicationMasterServiceMetrics metrics =
+      ApplicationMasterServiceMetrics.getMetrics();
+  // The RPC server runs every call of a connection as that connection's
+  // Subject, so the (weakly referenced, identity compared) Subject stands for
+  // the connection: its AMRMToken, and hence the attempt, cannot change for
+  // as long as the connection lives. Entries go with their connection; one
+  // for an attempt that was unregistered meanwhile is dropped on its next
+  // use.
+  private final Cache<Subject, ApplicationAttemptId> authorizedConnections =
+      CacheBuilder.newBuilder().weakKeys().build();
+  //ѯ,ʱΪ0ʱ
+  private long longPollTimeoutMs;
+  private Semaphore longPollPermits;
+  //,Ϊ0ʱ
+  private Semaphore schedulerPermits;
+  private ObjectName mxBeanName;
 
   public ApplicationMasterService(RMContext rmContext, YarnScheduler scheduler) {
     super(ApplicationMasterService.class.getName());
@@ -112,6 +175,69 @@ public class ApplicationMasterService extends AbstractService implements
     this.rmContext = rmContext;
   }
 
+  @Override
+  protected void serviceInit(Configuration conf) throws Exception {
+    int maxConcurrent = conf.getInt(RM_SCHEDULER_ALLOCATE_MAX_CONCURRENT,
+        DEFAULT_RM_SCHEDULER_ALLOCATE_MAX_CONCURRENT);
+    if (maxConcurrent < 0) {
+      throw new YarnRuntimeException("Invalid Configuration. "
+          + RM_SCHEDULER_ALLOCATE_MAX_CONCURRENT + " should not be negative.");
+    }
+    if (maxConcurrent > 0) {
+      schedulerPermits = new Semaphore(maxConcurrent);
+      LOG.info("At most " + maxConcurrent
+          + " allocate calls in the scheduler at a time");
+    }
+
+    longPollTimeoutMs = conf.getLong(RM_SCHEDULER_ALLOCATE_LONG_POLL_TIMEOUT_MS,
+        DEFAULT_RM_SCHEDULER_ALLOCATE_LONG_POLL_TIMEOUT_MS);
+    long amExpiryMs = conf.getLong(YarnConfiguration.RM_AM_EXPIRY_INTERVAL_MS,
+        YarnConfiguration.DEFAULT_RM_AM_EXPIRY_INTERVAL_MS);
+    if (longPollTimeoutMs < 0
+        || (longPollTimeoutMs > 0 && longPollTimeoutMs >= amExpiryMs / 2)) {
+      // a parked AM sends no pings, it must be answered well before it expires
+      throw new YarnRuntimeException("Invalid Configuration. "
+          + RM_SCHEDULER_ALLOCATE_LONG_POLL_TIMEOUT_MS + " should not be"
+          + " negative and should be less than half of "
+          + YarnConfiguration.RM_AM_EXPIRY_INTERVAL_MS + ".");
+    }
+    if (longPollTimeoutMs > 0) {
+      // by default leave at least half of the handlers for real work
+      int maxParked = conf.getInt(RM_SCHEDULER_ALLOCATE_LONG_POLL_MAX_PARKED,
+          conf.getInt(YarnConfiguration.RM_SCHEDULER_CLIENT_THREAD_COUNT,
+              YarnConfiguration.DEFAULT_RM_SCHEDULER_CLIENT_THREAD_COUNT) / 2);
+      longPollPermits = new Semaphore(Math.max(0, maxParked));
+      LOG.info("Allocate long-poll enabled, timeout " + longPollTimeoutMs
+          + "ms, at most " + maxParked + " parked calls");
+      // both run after the handlers that update the attempt and scheduler,
+      // so a woken poll finds the news
+      rmContext.getDispatcher().register(RMAppAttemptEventType.class,
+          new EventHandler<RMAppAttemptEvent>() {
+            @Override
+            public void handle(RMAppAttemptEvent event) {
+              switch (event.getType()) {
+              case CONTAINER_ALLOCATED:
+              case CONTAINER_FINISHED:
+              case KILL:
+              case EXPIRE:
+                wakeLongPoll(event.getApplicationAttemptId());
+                break;
+              default:
+                break;
+              }
+            }
+          });
+      rmContext.getDispatcher().register(ContainerPreemptEventType.class,
+          new EventHandler<ContainerPreemptEvent>() {
+            @Override
+            public void handle(ContainerPreemptEvent event) {
+              wakeLongPoll(event.getAppId());
+            }
+          });
+    }
+    super.serviceInit(conf);
+  }
+
   @Override
   protected void serviceStart() throws Exception {
     Configuration conf = getConfig();
@@ -145,6 +271,8 @@ public class ApplicationMasterService extends AbstractService implements
     this.bindAddress =
         conf.updateConnectAddr(YarnConfiguration.RM_SCHEDULER_ADDRESS,
                                server.getListenerAddress());
+    mxBeanName = MBeans.register("ResourceManager", "ApplicationMasterService",
+        this);
     super.serviceStart();
   }
 
@@ -173,6 +301,19 @@ public class ApplicationMasterService extends AbstractService implements
   private ApplicationAttemptId authorizeRequest()
       throws YarnException {
 
+    Subject connectionSubject = Subject.getSubject(AccessController.getContext());
+    if (connectionSubject != null) {
+      ApplicationAttemptId cached =
+          authorizedConnections.getIfPresent(connectionSubject);
+      if (cached != null) {
+        if (responseMap.containsKey(cached)) {
+          return cached;
+        }
+        // the attempt is gone, authorize the connection afresh
+        authorizedConnections.invalidate(connectionSubject);
+      }
+    }
+
     UserGroupInformation remoteUgi;
     try {
       remoteUgi = UserGroupInformation.getCurrentUser();
@@ -207,7 +348,12 @@ public class ApplicationMasterService extends AbstractService implements
       throw RPCUtil.getRemoteException(message);
     }
 
-    return appTokenIdentifier.getApplicationAttemptId();
+    ApplicationAttemptId attemptId =
+        appTokenIdentifier.getApplicationAttemptId();
+    if (connectionSubject != null && responseMap.containsKey(attemptId)) {
+      authorizedConnections.put(connectionSubject, attemptId);
+    }
+    return attemptId;
   }
   
   //ApplicationMasterApplicationMasterServiceϷϽӦע
@@ -219,8 +365,8 @@ public class ApplicationMasterService extends AbstractService implements
     ApplicationAttemptId applicationAttemptId = authorizeRequest();
 
     ApplicationId appID = applicationAttemptId.getApplicationId();
-    AllocateResponse lastResponse = responseMap.get(applicationAttemptId);
-    if (lastResponse == null) {
+    AllocateSession session = responseMap.get(applicationAttemptId);
+    if (session == null) {
       String message = "Application doesn't exist in cache "
           + applicationAttemptId;
       LOG.error(message);
@@ -231,55 +377,55 @@ public class ApplicationMasterService extends AbstractService implements
       throw RPCUtil.getRemoteException(message);
     }
 
-    // Allow only one thread in AM to do registerApp at a time.
-    synchronized (lastResponse) {
-
-      if (hasApplicationMasterRegistered(applicationAttemptId)) {
-        String message =
-            "Application Master is already registered : "
-                + applicationAttemptId.getApplicationId();
-        LOG.warn(message);
-        RMAuditLogger.logFailure(
-          this.rmContext.getRMApps()
-            .get(applicationAttemptId.getApplicationId()).getUser(),
-          AuditConstants.REGISTER_AM, "", "ApplicationMasterService", message,
-          applicationAttemptId.getApplicationId(), applicationAttemptId);
-        throw new InvalidApplicationMasterRequestException(message);
-      }
-      
-      //ڴ߳Ͻ¼¼ʱ䣬keyΪӦID
-      this.amLivelinessMonitor.receivedPing(applicationAttemptId);
-      RMApp app = this.rmContext.getRMApps().get(appID);
-      
-      // Setting the response id to 0 to identify if the
-      // application master is register for the respective attemptid
-      lastResponse.setResponseId(0);
-      responseMap.put(applicationAttemptId, lastResponse);
-      LOG.info("AM registration " + applicationAttemptId);
-      this.rmContext
-        .getDispatcher()
-        .getEventHandler()
-        .handle(
-          new RMAppAttemptRegistrationEvent(applicationAttemptId, request
-            .getHost(), request.getRpcPort(), request.getTrackingUrl()));
-      RMAuditLogger.logSuccess(app.getUser(), AuditConstants.REGISTER_AM,
-        "ApplicationMasterService", appID, applicationAttemptId);
-
-      // Pick up min/max resource from scheduler...
-      RegisterApplicationMasterResponse response = recordFactory
-          .newRecordInstance(RegisterApplicationMasterResponse.class);
-      response.setMaximumResourceCapability(rScheduler
-          .getMaximumResourceCapability());
-      response.setApplicationACLs(app.getRMAppAttempt(applicationAttemptId)
-          .getSubmissionContext().getAMContainerSpec().getApplicationACLs());
-      if (UserGroupInformation.isSecurityEnabled()) {
-        LOG.info("Setting client token master key");
-        response.setClientToAMTokenMasterKey(java.nio.ByteBuffer.wrap(rmContext
-            .getClientToAMTokenSecretManager()
-            .getMasterKey(applicationAttemptId).getEncoded()));        
-      }
-      return response;
+    // Allow only one thread in AM to do registerApp: the response id moves
+    // from -1 to 0 exactly once.
+    if (session.isRegistered() || !session.claim(-1)) {
+      String message =
+          "Application Master is already registered : "
+              + applicationAttemptId.getApplicationId();
+      LOG.warn(message);
+      RMAuditLogger.logFailure(
+        this.rmContext.getRMApps()
+          .get(applicationAttemptId.getApplicationId()).getUser(),
+        AuditConstants.REGISTER_AM, "", "ApplicationMasterService", message,
+        applicationAttemptId.getApplicationId(), applicationAttemptId);
+      throw new InvalidApplicationMasterRequestException(message);
     }
+
+    //ڴ߳Ͻ¼¼ʱ䣬keyΪӦID
+    this.amLivelinessMonitor.receivedPing(applicationAttemptId);
+    RMApp app = this.rmContext.getRMApps().get(appID);
+
+    // Setting the response id to 0 to identify if the
+    // application master is register for the respective attemptid
+    AllocateResponse registeredResponse =
+        recordFactory.newRecordInstance(AllocateResponse.class);
+    registeredResponse.setResponseId(0);
+    session.publish(registeredResponse);
+    LOG.info("AM registration " + applicationAttemptId);
+    this.rmContext
+      .getDispatcher()
+      .getEventHandler()
+      .handle(
+        new RMAppAttemptRegistrationEvent(applicationAttemptId, request
+          .getHost(), request.getRpcPort(), request.getTrackingUrl()));
+    RMAuditLogger.logSuccess(app.getUser(), AuditConstants.REGISTER_AM,
+      "ApplicationMasterService", appID, applicationAttemptId);
+
+    // Pick up min/max resource from scheduler...
+    RegisterApplicationMasterResponse response = recordFactory
+        .newRecordInstance(RegisterApplicationMasterResponse.class);
+    response.setMaximumResourceCapability(rScheduler
+        .getMaximumResourceCapability());
+    response.setApplicationACLs(app.getRMAppAttempt(applicationAttemptId)
+        .getSubmissionContext().getAMContainerSpec().getApplicationACLs());
+    if (UserGroupInformation.isSecurityEnabled()) {
+      LOG.info("Setting client token master key");
+      response.setClientToAMTokenMasterKey(java.nio.ByteBuffer.wrap(rmContext
+          .getClientToAMTokenSecretManager()
+          .getMasterKey(applicationAttemptId).getEncoded()));        
+    }
+    return response;
   }
 
   @Override
@@ -289,31 +435,47 @@ public class ApplicationMasterService extends AbstractService implements
 
     ApplicationAttemptId applicationAttemptId = authorizeRequest();
 
-    AllocateResponse lastResponse = responseMap.get(applicationAttemptId);
-    if (lastResponse == null) {
+    AllocateSession session = responseMap.get(applicationAttemptId);
+    if (session == null) {
       String message = "Application doesn't exist in cache "
           + applicationAttemptId;
       LOG.error(message);
       throw RPCUtil.getRemoteException(message);
     }
 
-    // Allow only one thread in AM to do finishApp at a time.
-    synchronized (lastResponse) {
-
-      this.amLivelinessMonitor.receivedPing(applicationAttemptId);
+    this.amLivelinessMonitor.receivedPing(applicationAttemptId);
 
+    // Unregistration must not overlap a heartbeat: wait for the one in
+    // progress, after answering it if it is parked, and keep the next one
+    // out until the event is dispatched.
+    session.setFinishing();
+    boolean claimed = session.isRegistered();
+    int lastResponseId = -1;
+    if (claimed) {
+      try {
+        lastResponseId = session.claimExclusive();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw RPCUtil.getRemoteException(e);
+      }
+    }
+    try {
       rmContext.getDispatcher().getEventHandler().handle(
           new RMAppAttemptUnregistrationEvent(applicationAttemptId, request
               .getTrackingUrl(), request.getFinalApplicationStatus(), request
               .getDiagnostics()));
-
-      if (rmContext.getRMApps().get(applicationAttemptId.getApplicationId())
-          .isAppSafeToUnregister()) {
-        return FinishApplicationMasterResponse.newInstance(true);
-      } else {
-        return FinishApplicationMasterResponse.newInstance(false);
+    } finally {
+      if (claimed) {
+        session.release(lastResponseId);
       }
     }
+
+    if (rmContext.getRMApps().get(applicationAttemptId.getApplicationId())
+        .isAppSafeToUnregister()) {
+      return FinishApplicationMasterResponse.newInstance(true);
+    } else {
+      return FinishApplicationMasterResponse.newInstance(false);
+    }
   }
 
   /**
@@ -322,16 +484,8 @@ public class ApplicationMasterService extends AbstractService implements
    */
   public boolean hasApplicationMasterRegistered(
       ApplicationAttemptId appAttemptId) {
-    boolean hasApplicationMasterRegistered = false;
-    AllocateResponse lastResponse = responseMap.get(appAttemptId);
-    if (lastResponse != null) {
-      synchronized (lastResponse) {
-        if (lastResponse.getResponseId() >= 0) {
-          hasApplicationMasterRegistered = true;
-        }
-      }
-    }
-    return hasApplicationMasterRegistered;
+    AllocateSession session = responseMap.get(appAttemptId);
+    return session != null && session.isRegistered();
   }
 
   //ApplicationMasterϢ
@@ -339,19 +493,22 @@ public class ApplicationMasterService extends AbstractService implements
   public AllocateResponse allocate(AllocateRequest request)
       throws YarnException, IOException {
 
+    long start = System.nanoTime();
     ApplicationAttemptId appAttemptId = authorizeRequest();
+    metrics.addAllocateAuthorizeTime((System.nanoTime() - start) / 1000);
     //Ϣʱĸ
     this.amLivelinessMonitor.receivedPing(appAttemptId);
 
     /* check if its in cache */
-    AllocateResponse lastResponse = responseMap.get(appAttemptId);
-    if (lastResponse == null) {
+    AllocateSession session = responseMap.get(appAttemptId);
+    if (session == null) {
       LOG.error("AppAttemptId doesnt exist in cache " + appAttemptId);
       return resync;
     }
+    int lastResponseId = session.getLastResponseId();
     
     //ǷдӦIDж
-    if (!hasApplicationMasterRegistered(appAttemptId)) {
+    if (lastResponseId < 0) {
       String message =
           "Application Master is trying to allocate before registering for: "
               + appAttemptId.getApplicationId();
@@ -364,121 +521,169 @@ public class ApplicationMasterService extends AbstractService implements
       throw new InvalidApplicationMasterRequestException(message);
     }
 
-    if ((request.getResponseId() + 1) == lastResponse.getResponseId()) {
+    if ((request.getResponseId() + 1) == lastResponseId) {
       /* old heartbeat */
-      return lastResponse;
-    } else if (request.getResponseId() + 1 < lastResponse.getResponseId()) {
+      AllocateResponse lastResponse = session.getLastResponse();
+      if (lastResponse.getResponseId() == lastResponseId) {
+        return lastResponse;
+      }
+      // a newer response was published meanwhile, the AM is out of sync
+      return resync;
+    } else if (request.getResponseId() + 1 < lastResponseId) {
       LOG.error("Invalid responseid from appAttemptId " + appAttemptId);
       // Oh damn! Sending reboot isn't enough. RM state is corrupted. TODO:
       // Reboot is not useful since after AM reboots, it will send register and 
       // get an exception. Might as well throw an exception here.
       return resync;
     } 
+
+    List<ResourceRequest> ask = request.getAskList();
+    List<ContainerId> release = request.getReleaseList();
+    
+    ResourceBlacklistRequest blacklistRequest = request.getResourceBlacklistRequest();
+    List<String> blacklistAdditions = 
+        (blacklistRequest != null) ? 
+            blacklistRequest.getBlacklistAdditions() : null;
+    List<String> blacklistRemovals = 
+        (blacklistRequest != null) ? 
+            blacklistRequest.getBlacklistRemovals() : null;
     
-    // Allow only one thread in AM to do heartbeat at a time.
-    synchronized (lastResponse) {
+    // sanity check, done before claiming the heartbeat so that an invalid
+    // request never holds up a retry. Asks re-sent unchanged were already
+    // validated on an earlier heartbeat.
+    long phaseStart = System.nanoTime();
+    try {
+      Resource maximumCapability = rScheduler.getMaximumResourceCapability();
+      ValidatedAskCache validatedAsks = session.getValidatedAsks();
+      List<ResourceRequest> unvalidatedAsk =
+          validatedAsks.getUnvalidated(ask, maximumCapability);
+      RMServerUtils.validateResourceRequests(unvalidatedAsk,
+          maximumCapability);
+      validatedAsks.addValidated(unvalidatedAsk, maximumCapability);
+    } catch (InvalidResourceRequestException e) {
+      LOG.warn("Invalid resource ask by application " + appAttemptId, e);
+      throw e;
+    }
+    
+    try {
+      RMServerUtils.validateBlacklistRequest(blacklistRequest);
+    }  catch (InvalidResourceBlacklistRequestException e) {
+      LOG.warn("Invalid blacklist request by application " + appAttemptId, e);
+      throw e;
+    }
+    
+    try {
+      RMServerUtils.validateContainerReleaseRequest(release, appAttemptId);
+    } catch (InvalidContainerReleaseException e) {
+      LOG.warn("Invalid container release by application " + appAttemptId, e);
+      throw e;
+    }
+    metrics.addAllocateValidateTime((System.nanoTime() - phaseStart) / 1000);
 
+    // Allow only one thread in AM to do heartbeat at a time. A thread that
+    // loses the race for this heartbeat replays the winner's response.
+    while (!session.claim(lastResponseId)) {
+      AllocateResponse inFlight;
+      try {
+        inFlight = session.awaitResponse(lastResponseId + 1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw RPCUtil.getRemoteException(e);
+      }
+      if (inFlight != null) {
+        return inFlight;
+      }
+    }
+
+    boolean published = false;
+    try {
       // Send the status update to the appAttempt.
       //Ӧ״̬ĸ
       this.rmContext.getDispatcher().getEventHandler().handle(
           new RMAppAttemptStatusupdateEvent(appAttemptId, request
               .getProgress()));
 
-      List<ResourceRequest> ask = request.getAskList();
-      List<ContainerId> release = request.getReleaseList();
-      
-      ResourceBlacklistRequest blacklistRequest = request.getResourceBlacklistRequest();
-      List<String> blacklistAdditions = 
-          (blacklistRequest != null) ? 
-              blacklistRequest.getBlacklistAdditions() : null;
-      List<String> blacklistRemovals = 
-          (blacklistRequest != null) ? 
-              blacklistRequest.getBlacklistRemovals() : null;
-      
-      // sanity check
-      try {
-        RMServerUtils.validateResourceRequests(ask,
-            rScheduler.getMaximumResourceCapability());
-      } catch (InvalidResourceRequestException e) {
-        LOG.warn("Invalid resource ask by application " + appAttemptId, e);
-        throw e;
-      }
-      
-      try {
-        RMServerUtils.validateBlacklistRequest(blacklistRequest);
-      }  catch (InvalidResourceBlacklistRequestException e) {
-        LOG.warn("Invalid blacklist request by application " + appAttemptId, e);
-        throw e;
-      }
-      
-      try {
-        RMServerUtils.validateContainerReleaseRequest(release, appAttemptId);
-      } catch (InvalidContainerReleaseException e) {
-        LOG.warn("Invalid container release by application " + appAttemptId, e);
-        throw e;
-      }
-      
       // Send new requests to appAttempt.
-      Allocation allocation =
-          this.rScheduler.allocate(appAttemptId, ask, release, 
-              blacklistAdditions, blacklistRemovals);
+      boolean pollOnly = isPollOnly(ask, release, blacklistAdditions,
+          blacklistRemovals);
+      // read before the scheduler call so no update in between is missed
+      long allocationUpdates = session.getAllocationUpdates();
+      phaseStart = System.nanoTime();
+      Allocation allocation = limitedSchedulerAllocate(session, pollOnly, ask,
+          release, blacklistAdditions, blacklistRemovals);
+      metrics.addAllocateSchedulerTime((System.nanoTime() - phaseStart) / 1000);
 
       RMApp app = this.rmContext.getRMApps().get(
           appAttemptId.getApplicationId());
       RMAppAttempt appAttempt = app.getRMAppAttempt(appAttemptId);
+
+      // an AM that only asks whether anything happened is parked until
+      // something did, instead of being answered with an empty response.
+      // An answer from the last allocation never asked the scheduler, so
+      // it is not parked on.
+      if (longPollTimeoutMs > 0 && pollOnly && !session.isFinishing()
+          && allocation != session.getLastAllocation()) {
+        allocation = awaitAllocationUpdate(session, allocationUpdates,
+            appAttempt, allocation);
+      }
       
       AllocateResponse allocateResponse =
           recordFactory.newRecordInstance(AllocateResponse.class);
 
-      // update the response with the deltas of node status changes
+      // update the response with the deltas of node status changes; the
+      // reports are shared by all applications and only rebuilt when the
+      // node changed
       List<RMNode> updatedNodes = new ArrayList<RMNode>();
+      phaseStart = System.nanoTime();
       if(app.pullRMNodeUpdates(updatedNodes) > 0) {
-        List<NodeReport> updatedNodeReports = new ArrayList<NodeReport>();
+        NodeReportCache nodeReportCache = rmContext.getNodeReportCache();
+        List<NodeReport> updatedNodeReports =
+            new ArrayList<NodeReport>(updatedNodes.size());
         for(RMNode rmNode: updatedNodes) {
-          SchedulerNodeReport schedulerNodeReport =  
-              rScheduler.getNodeReport(rmNode.getNodeID());
-          Resource used = BuilderUtils.newResource(0, 0);
-          int numContainers = 0;
-          if (schedulerNodeReport != null) {
-            used = schedulerNodeReport.getUsedResource();
-            numContainers = schedulerNodeReport.getNumContainers();
-          }
-          NodeReport report = BuilderUtils.newNodeReport(rmNode.getNodeID(),
-              rmNode.getState(),
-              rmNode.getHttpAddress(), rmNode.getRackName(), used,
-              rmNode.getTotalCapability(), numContainers,
-              rmNode.getHealthReport(),
-              rmNode.getLastHealthReportTime());
-          
-          updatedNodeReports.add(report);
+          updatedNodeReports.add(
+              nodeReportCache.getNodeReport(rmNode, rScheduler));
         }
         allocateResponse.setUpdatedNodes(updatedNodeReports);
       }
+      metrics.addAllocateNodeReportsTime(
+          (System.nanoTime() - phaseStart) / 1000);
 
       allocateResponse.setAllocatedContainers(allocation.getContainers());
-      allocateResponse.setCompletedContainersStatuses(appAttempt
-          .pullJustFinishedContainers());
-      allocateResponse.setResponseId(lastResponse.getResponseId() + 1);
+      List<ContainerStatus> completedContainers =
+          appAttempt.pullJustFinishedContainers();
+      allocateResponse.setCompletedContainersStatuses(completedContainers);
+      allocateResponse.setResponseId(lastResponseId + 1);
       allocateResponse.setAvailableResources(allocation.getResourceLimit());
       
       allocateResponse.setNumClusterNodes(this.rScheduler.getNumClusterNodes());
    
       // add preemption to the allocateResponse message (if any)
-      allocateResponse.setPreemptionMessage(generatePreemptionMessage(allocation));
+      allocateResponse.setPreemptionMessage(
+          getPreemptionMessage(session, allocation));
 
-      // Adding NMTokens for allocated containers.
+      // Adding NMTokens for allocated containers. The secret manager only
+      // creates tokens for nodes the attempt has none for yet.
       if (!allocation.getContainers().isEmpty()) {
+        phaseStart = System.nanoTime();
         allocateResponse.setNMTokens(rmContext.getNMTokenSecretManager()
             .createAndGetNMTokens(app.getUser(), appAttemptId,
                 allocation.getContainers()));
+        metrics.addAllocateNMTokensTime(
+            (System.nanoTime() - phaseStart) / 1000);
       }
 
+      int responseBytes = session.publish(allocateResponse);
+      published = true;
+
+      long micros = (System.nanoTime() - start) / 1000;
+      metrics.addAllocate(app.getQueue(), micros, ask.size(),
+          allocation.getContainers().size(), completedContainers.size(),
+          responseBytes);
+      session.recordAllocate(app.getQueue(), micros);
+
       // before returning response, verify in sync
-      AllocateResponse oldResponse =
-          responseMap.put(appAttemptId, allocateResponse);
-      if (oldResponse == null) {
-        // appAttempt got unregistered, remove it back out
-        responseMap.remove(appAttemptId);
+      if (responseMap.get(appAttemptId) != session) {
+        // appAttempt got unregistered during allocate
         String message = "App Attempt removed from the cache during allocate"
             + appAttemptId;
         LOG.error(message);
@@ -486,9 +691,158 @@ public class ApplicationMasterService extends AbstractService implements
       }
 
       return allocateResponse;
+    } finally {
+      if (!published) {
+        session.release(lastResponseId);
+      }
     }
   }
   
+  /**
+   * @return true if the allocate call neither asks for nor releases
+   *         containers, nor changes the blacklist
+   */
+  static boolean isPollOnly(List<ResourceRequest> ask,
+      List<ContainerId> release, List<String> blacklistAdditions,
+      List<String> blacklistRemovals) {
+    return isEmpty(ask) && isEmpty(release) && isEmpty(blacklistAdditions)
+        && isEmpty(blacklistRemovals);
+  }
+
+  private static boolean isEmpty(List<?> list) {
+    return list == null || list.isEmpty();
+  }
+
+  private void wakeLongPoll(ApplicationAttemptId attemptId) {
+    AllocateSession session = responseMap.get(attemptId);
+    if (session != null) {
+      session.allocationUpdated();
+    }
+  }
+
+  private Allocation schedulerAllocate(ApplicationAttemptId appAttemptId,
+      List<ResourceRequest> ask, List<ContainerId> release,
+      List<String> blacklistAdditions, List<String> blacklistRemovals) {
+    return this.rScheduler.allocate(appAttemptId, ask, release,
+        blacklistAdditions, blacklistRemovals);
+  }
+
+  /**
+   * Calls the scheduler within the <code>schedulerPermits</code> limit. A
+   * poll that finds all permits taken gets the headroom and preemptions of
+   * the attempt's last allocation; any new containers are handed out on the
+   * next heartbeat.
+   */
+  private Allocation limitedSchedulerAllocate(AllocateSession session,
+      boolean pollOnly, List<ResourceRequest> ask, List<ContainerId> release,
+      List<String> blacklistAdditions, List<String> blacklistRemovals)
+      throws YarnException {
+    ApplicationAttemptId appAttemptId = session.getAttemptId();
+    if (schedulerPermits == null) {
+      return schedulerAllocate(appAttemptId, ask, release,
+          blacklistAdditions, blacklistRemovals);
+    }
+    if (!schedulerPermits.tryAcquire()) {
+      Allocation lastAllocation = session.getLastAllocation();
+      if (pollOnly && lastAllocation != null) {
+        metrics.incrAllocateSchedulerSkipped();
+        return lastAllocation;
+      }
+      long waitStart = System.nanoTime();
+      try {
+        schedulerPermits.acquire();
+        metrics.addAllocateSchedulerPermitWaitTime(
+            (System.nanoTime() - waitStart) / 1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw RPCUtil.getRemoteException(e);
+      }
+    }
+    try {
+      Allocation allocation = schedulerAllocate(appAttemptId, ask, release,
+          blacklistAdditions, blacklistRemovals);
+      session.setLastAllocation(allocation);
+      return allocation;
+    } finally {
+      schedulerPermits.release();
+    }
+  }
+
+  private static boolean hasUpdates(Allocation allocation,
+      RMAppAttempt appAttempt) {
+    return !allocation.getContainers().isEmpty()
+        || allocation.getStrictContainerPreemptions() != null
+        || (allocation.getContainerPreemptions() != null
+            && !allocation.getContainerPreemptions().isEmpty())
+        || !appAttempt.getJustFinishedContainers().isEmpty();
+  }
+
+  /**
+   * Long-poll: parks the heartbeat until the dispatcher reports containers
+   * allocated, completed or marked for preemption for the attempt, or
+   * <code>longPollTimeoutMs</code> expired, and re-polls the scheduler on
+   * every such event. At most <code>longPollMaxParked</code> handlers are
+   * parked at a time so that idle AMs can never starve the RPC server.
+   * @param seen the session's update count read before <code>allocation</code>
+   */
+  private Allocation awaitAllocationUpdate(AllocateSession session, long seen,
+      RMAppAttempt appAttempt, Allocation allocation) throws YarnException {
+    if (hasUpdates(allocation, appAttempt) || !longPollPermits.tryAcquire()) {
+      return allocation;
+    }
+    try {
+      long deadline = System.currentTimeMillis() + longPollTimeoutMs;
+      long remaining;
+      while ((remaining = deadline - System.currentTimeMillis()) > 0
+          && session.awaitAllocationUpdate(seen, remaining)
+          && responseMap.get(session.getAttemptId()) == session
+          && !session.isFinishing()) {
+        seen = session.getAllocationUpdates();
+        allocation = limitedSchedulerAllocate(session, false, EMPTY_ASK,
+            EMPTY_RELEASE, null, null);
+        if (hasUpdates(allocation, appAttempt)) {
+          break;
+        }
+      }
+      return allocation;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw RPCUtil.getRemoteException(e);
+    } finally {
+      longPollPermits.release();
+    }
+  }
+
+  private static boolean hasPreemptions(Allocation allocation) {
+    return allocation.getStrictContainerPreemptions() != null
+        || (allocation.getResourcePreemptions() != null
+            && !allocation.getResourcePreemptions().isEmpty()
+            && allocation.getContainerPreemptions() != null
+            && !allocation.getContainerPreemptions().isEmpty());
+  }
+
+  /**
+   * Resends the previous heartbeat's preemption message as long as the
+   * scheduler keeps asking for the same preemptions.
+   */
+  private PreemptionMessage getPreemptionMessage(AllocateSession session,
+      Allocation allocation) {
+    if (!hasPreemptions(allocation)) {
+      return null;
+    }
+    PreemptionMessage pMsg = session.getPreemptionMessage(allocation);
+    if (pMsg != null) {
+      metrics.incrPreemptionMessagesReused();
+      return pMsg;
+    }
+    long start = System.nanoTime();
+    pMsg = generatePreemptionMessage(allocation);
+    metrics.addPreemptionMessageBuildTime(
+        (System.nanoTime() - start) / 1000);
+    session.setPreemptionMessage(allocation, pMsg);
+    return pMsg;
+  }
+
   private PreemptionMessage generatePreemptionMessage(Allocation allocation){
     PreemptionMessage pMsg = null;
     // assemble strict preemption request
@@ -541,6 +895,38 @@ public class ApplicationMasterService extends AbstractService implements
     return pMsg;
   }
 
+  @Override
+  public String dumpSlowestAttempts(int n) {
+    // snapshot the timings, they keep changing while we sort
+    List<AllocateSummary> summaries = new ArrayList<AllocateSummary>();
+    for (AllocateSession session : responseMap.values()) {
+      summaries.add(new AllocateSummary(session.getAllocateMaxMicros(),
+          session.getAllocateSummary()));
+    }
+    Collections.sort(summaries, new Comparator<AllocateSummary>() {
+      @Override
+      public int compare(AllocateSummary s1, AllocateSummary s2) {
+        return s1.maxMicros > s2.maxMicros ? -1
+            : (s1.maxMicros < s2.maxMicros ? 1 : 0);
+      }
+    });
+    StringBuilder dump = new StringBuilder();
+    for (int i = 0; i < n && i < summaries.size(); i++) {
+      dump.append(summaries.get(i).summary).append('\n');
+    }
+    return dump.toString();
+  }
+
+  private static class AllocateSummary {
+    private final long maxMicros;
+    private final String summary;
+
+    AllocateSummary(long maxMicros, String summary) {
+      this.maxMicros = maxMicros;
+      this.summary = summary;
+    }
+  }
+
   public void registerAppAttempt(ApplicationAttemptId attemptId) {
     AllocateResponse response =
         recordFactory.newRecordInstance(AllocateResponse.class);
@@ -548,13 +934,17 @@ public class ApplicationMasterService extends AbstractService implements
     // attemptID get registered
     response.setResponseId(-1);
     LOG.info("Registering app attempt : " + attemptId);
-    responseMap.put(attemptId, response);
+    responseMap.put(attemptId, new AllocateSession(attemptId, response));
     rmContext.getNMTokenSecretManager().registerApplicationAttempt(attemptId);
   }
 
   public void unregisterAttempt(ApplicationAttemptId attemptId) {
     LOG.info("Unregistering app attempt : " + attemptId);
-    responseMap.remove(attemptId);
+    AllocateSession session = responseMap.remove(attemptId);
+    if (session != null) {
+      // answer a parked long-poll now rather than at its timeout
+      session.allocationUpdated();
+    }
     rmContext.getNMTokenSecretManager().unregisterApplicationAttempt(attemptId);
   }
 
@@ -565,6 +955,10 @@ public class ApplicationMasterService extends AbstractService implements
   
   @Override
   protected void serviceStop() throws Exception {
+    if (mxBeanName != null) {
+      MBeans.unregister(mxBeanName);
+      mxBeanName = null;
+    }
     if (this.server != null) {
       this.server.stop();
     }
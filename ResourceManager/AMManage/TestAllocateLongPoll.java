@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.impl.pb.AllocateResponsePBImpl;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ResourceBlacklistRequest;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAllocateLongPoll {
+
+  private static boolean isPollOnly(AllocateRequest request) {
+    ResourceBlacklistRequest blacklist = request.getResourceBlacklistRequest();
+    return ApplicationMasterService.isPollOnly(request.getAskList(),
+        request.getReleaseList(),
+        blacklist == null ? null : blacklist.getBlacklistAdditions(),
+        blacklist == null ? null : blacklist.getBlacklistRemovals());
+  }
+
+  private static AllocateSession newSession() {
+    AllocateResponse response = new AllocateResponsePBImpl();
+    response.setResponseId(0);
+    return new AllocateSession(ApplicationAttemptId.newInstance(
+        ApplicationId.newInstance(1L, 1), 1), response);
+  }
+
+  @Test
+  public void testPollOnly() {
+    List<String> none = Collections.emptyList();
+    // what AMRMClient sends on an idle heartbeat: empty lists, never null
+    AllocateRequest idle = AllocateRequest.newInstance(1, 0.5f,
+        new ArrayList<ResourceRequest>(), new ArrayList<ContainerId>(),
+        ResourceBlacklistRequest.newInstance(none, none));
+    Assert.assertTrue(isPollOnly(idle));
+
+    AllocateRequest noBlacklist = AllocateRequest.newInstance(1, 0.5f,
+        new ArrayList<ResourceRequest>(), new ArrayList<ContainerId>(), null);
+    Assert.assertTrue(isPollOnly(noBlacklist));
+
+    AllocateRequest blacklisting = AllocateRequest.newInstance(1, 0.5f,
+        new ArrayList<ResourceRequest>(), new ArrayList<ContainerId>(),
+        ResourceBlacklistRequest.newInstance(
+            Collections.singletonList("host1"), none));
+    Assert.assertFalse(isPollOnly(blacklisting));
+  }
+
+  @Test(timeout = 10000)
+  public void testParkedPollWokenByUpdate() throws Exception {
+    final AllocateSession session = newSession();
+    final long seen = session.getAllocationUpdates();
+    final AtomicBoolean woken = new AtomicBoolean();
+    Thread parked = new Thread() {
+      @Override
+      public void run() {
+        try {
+          woken.set(session.awaitAllocationUpdate(seen, 60000));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    parked.start();
+    Thread.sleep(100);
+    Assert.assertTrue(parked.isAlive());
+    session.allocationUpdated();
+    parked.join();
+    Assert.assertTrue(woken.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testUpdateBeforeParkIsNotMissed() throws Exception {
+    AllocateSession session = newSession();
+    long seen = session.getAllocationUpdates();
+    session.allocationUpdated();
+    Assert.assertTrue(session.awaitAllocationUpdate(seen, 60000));
+  }
+
+  @Test(timeout = 10000)
+  public void testParkedPollTimesOut() throws Exception {
+    AllocateSession session = newSession();
+    long start = System.currentTimeMillis();
+    Assert.assertFalse(session.awaitAllocationUpdate(
+        session.getAllocationUpdates(), 200));
+    Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+  }
+}
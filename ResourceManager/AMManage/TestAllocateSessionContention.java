@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.impl.pb.AllocateResponsePBImpl;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Drives the heartbeat claim of 5,000 sessions from many threads at once:
+ * every session gets an AM thread, a thread retrying the same heartbeats
+ * and an unregistration-style exclusive claimer.
+ */
+public class TestAllocateSessionContention {
+  private static final Log LOG =
+      LogFactory.getLog(TestAllocateSessionContention.class);
+
+  private static final int NUM_SESSIONS = 5000;
+  private static final int HEARTBEATS = 20;
+  private static final int THREADS = 64;
+
+  /** The claim, publish and duplicate replay steps of allocate. */
+  private static int heartbeat(AllocateSession session, int lastResponseId)
+      throws InterruptedException {
+    while (!session.claim(lastResponseId)) {
+      AllocateResponse inFlight = session.awaitResponse(lastResponseId + 1);
+      if (inFlight != null) {
+        return inFlight.getResponseId();
+      }
+    }
+    AllocateResponse response = new AllocateResponsePBImpl();
+    response.setResponseId(lastResponseId + 1);
+    session.publish(response);
+    return lastResponseId + 1;
+  }
+
+  private static Callable<Void> heartbeats(final AllocateSession session) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (int i = 0; i < HEARTBEATS; i++) {
+          int lastResponseId = session.getLastResponseId();
+          // the other thread may have published this and the next one
+          Assert.assertTrue(heartbeat(session, lastResponseId)
+              > lastResponseId);
+        }
+        return null;
+      }
+    };
+  }
+
+  private static Callable<Void> exclusive(final AllocateSession session) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (int i = 0; i < HEARTBEATS / 4; i++) {
+          int lastResponseId = session.claimExclusive();
+          // no heartbeat may be published while the claim is held
+          Thread.yield();
+          Assert.assertEquals(lastResponseId, session.getLastResponseId());
+          session.release(lastResponseId);
+        }
+        return null;
+      }
+    };
+  }
+
+  @Test(timeout = 300000)
+  public void testConcurrentHeartbeats() throws Exception {
+    List<AllocateSession> sessions = new ArrayList<AllocateSession>();
+    ApplicationId appId = ApplicationId.newInstance(1L, 1);
+    for (int i = 0; i < NUM_SESSIONS; i++) {
+      AllocateResponse registered = new AllocateResponsePBImpl();
+      registered.setResponseId(0);
+      sessions.add(new AllocateSession(
+          ApplicationAttemptId.newInstance(appId, i + 1), registered));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (AllocateSession session : sessions) {
+      tasks.add(heartbeats(session));
+      tasks.add(heartbeats(session));
+      tasks.add(exclusive(session));
+    }
+    long start = System.nanoTime();
+    List<Future<Void>> results = pool.invokeAll(tasks);
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    pool.shutdown();
+    for (Future<Void> result : results) {
+      result.get();
+    }
+
+    long processed = 0;
+    for (AllocateSession session : sessions) {
+      int lastResponseId = session.getLastResponseId();
+      // the retrying thread either replayed or advanced every heartbeat
+      Assert.assertTrue(lastResponseId >= HEARTBEATS);
+      Assert.assertTrue(lastResponseId <= 2 * HEARTBEATS);
+      Assert.assertEquals(lastResponseId,
+          session.getLastResponse().getResponseId());
+      processed += lastResponseId;
+    }
+    LOG.info(NUM_SESSIONS + " sessions, " + THREADS + " threads: "
+        + processed + " heartbeats published, "
+        + (2L * NUM_SESSIONS * HEARTBEATS - processed) + " replayed in "
+        + millis + "ms (" + (processed * 1000 / Math.max(1, millis))
+        + " heartbeats/s)");
+  }
+}
@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.AllocateResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.FinishApplicationMasterRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterRequest;
+import org.apache.hadoop.yarn.api.records.ApplicationAccessType;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationSubmissionContext;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
+import org.apache.hadoop.yarn.event.Dispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.security.AMRMTokenIdentifier;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.AMLivelinessMonitor;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.RMAppAttempt;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.attempt.event.RMAppAttemptUnregistrationEvent;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.Allocation;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.YarnScheduler;
+import org.apache.hadoop.yarn.server.resourcemanager.security.NMTokenSecretManagerInRM;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Drives {@link ApplicationMasterService#allocate(AllocateRequest)} as an AM
+ * would, against a mocked scheduler and RM context.
+ */
+public class TestApplicationMasterServiceAllocate {
+
+  private final ApplicationAttemptId attemptId = ApplicationAttemptId
+      .newInstance(ApplicationId.newInstance(1L, 1), 1);
+  private YarnScheduler scheduler;
+  private EventHandler<Event> eventHandler;
+  private ApplicationMasterService service;
+  private UserGroupInformation amUgi;
+  private ExecutorService pool;
+  // every scheduler call waits for this latch while it is set
+  private volatile CountDownLatch schedulerGate;
+  private final CountDownLatch inScheduler = new CountDownLatch(1);
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() throws Exception {
+    scheduler = mock(YarnScheduler.class);
+    when(scheduler.getMaximumResourceCapability()).thenReturn(
+        Resource.newInstance(8192, 8));
+    when(scheduler.getNumClusterNodes()).thenReturn(1);
+    when(scheduler.allocate(any(ApplicationAttemptId.class),
+        anyListOf(ResourceRequest.class), anyListOf(ContainerId.class),
+        anyListOf(String.class), anyListOf(String.class))).thenAnswer(
+        new Answer<Allocation>() {
+          @Override
+          public Allocation answer(InvocationOnMock invocation)
+              throws Throwable {
+            inScheduler.countDown();
+            CountDownLatch gate = schedulerGate;
+            if (gate != null) {
+              gate.await();
+            }
+            return new Allocation(Collections.<Container>emptyList(),
+                Resource.newInstance(4096, 4), null, null, null);
+          }
+        });
+
+    ApplicationSubmissionContext submissionContext =
+        mock(ApplicationSubmissionContext.class);
+    ContainerLaunchContext amContainerSpec =
+        mock(ContainerLaunchContext.class);
+    when(amContainerSpec.getApplicationACLs()).thenReturn(
+        new HashMap<ApplicationAccessType, String>());
+    when(submissionContext.getAMContainerSpec()).thenReturn(amContainerSpec);
+    RMAppAttempt appAttempt = mock(RMAppAttempt.class);
+    when(appAttempt.getSubmissionContext()).thenReturn(submissionContext);
+    when(appAttempt.pullJustFinishedContainers()).thenReturn(
+        new ArrayList<ContainerStatus>());
+    when(appAttempt.getJustFinishedContainers()).thenReturn(
+        new ArrayList<ContainerStatus>());
+    RMApp app = mock(RMApp.class);
+    when(app.getUser()).thenReturn("am-user");
+    when(app.getQueue()).thenReturn("default");
+    when(app.getRMAppAttempt(attemptId)).thenReturn(appAttempt);
+    when(app.isAppSafeToUnregister()).thenReturn(true);
+    ConcurrentMap<ApplicationId, RMApp> apps =
+        new ConcurrentHashMap<ApplicationId, RMApp>();
+    apps.put(attemptId.getApplicationId(), app);
+
+    eventHandler = mock(EventHandler.class);
+    Dispatcher dispatcher = mock(Dispatcher.class);
+    when(dispatcher.getEventHandler()).thenReturn(eventHandler);
+    RMContext rmContext = mock(RMContext.class);
+    when(rmContext.getRMApps()).thenReturn(apps);
+    when(rmContext.getDispatcher()).thenReturn(dispatcher);
+    when(rmContext.getAMLivelinessMonitor()).thenReturn(
+        mock(AMLivelinessMonitor.class));
+    when(rmContext.getNMTokenSecretManager()).thenReturn(
+        mock(NMTokenSecretManagerInRM.class));
+
+    service = new ApplicationMasterService(rmContext, scheduler);
+    service.registerAppAttempt(attemptId);
+    amUgi = UserGroupInformation.createRemoteUser(attemptId.toString());
+    amUgi.addTokenIdentifier(new AMRMTokenIdentifier(attemptId));
+    pool = Executors.newCachedThreadPool();
+
+    asAM(new PrivilegedExceptionAction<Object>() {
+      @Override
+      public Object run() throws Exception {
+        return service.registerApplicationMaster(
+            RegisterApplicationMasterRequest.newInstance("host", 0, ""));
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private <T> T asAM(PrivilegedExceptionAction<T> action) throws Exception {
+    return amUgi.doAs(action);
+  }
+
+  private Callable<AllocateResponse> heartbeat(final int responseId) {
+    return new Callable<AllocateResponse>() {
+      @Override
+      public AllocateResponse call() throws Exception {
+        return asAM(new PrivilegedExceptionAction<AllocateResponse>() {
+          @Override
+          public AllocateResponse run() throws Exception {
+            return service.allocate(AllocateRequest.newInstance(responseId,
+                0.5f, new ArrayList<ResourceRequest>(),
+                new ArrayList<ContainerId>(), null));
+          }
+        });
+      }
+    };
+  }
+
+  private void verifySchedulerCalls(int calls) {
+    verify(scheduler, times(calls)).allocate(any(ApplicationAttemptId.class),
+        anyListOf(ResourceRequest.class), anyListOf(ContainerId.class),
+        anyListOf(String.class), anyListOf(String.class));
+  }
+
+  @Test(timeout = 10000)
+  public void testDuplicateHeartbeatReplaysResponse() throws Exception {
+    AllocateResponse first = heartbeat(0).call();
+    Assert.assertEquals(1, first.getResponseId());
+
+    // the AM did not get the answer and retries the same heartbeat
+    AllocateResponse replayed = heartbeat(0).call();
+    Assert.assertEquals(1, replayed.getResponseId());
+    Assert.assertEquals(first.getAvailableResources(),
+        replayed.getAvailableResources());
+    verifySchedulerCalls(1);
+
+    Assert.assertEquals(2, heartbeat(1).call().getResponseId());
+    verifySchedulerCalls(2);
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentDuplicateHeartbeatWaitsForTheFirst()
+      throws Exception {
+    schedulerGate = new CountDownLatch(1);
+    Future<AllocateResponse> first = pool.submit(heartbeat(0));
+    inScheduler.await();
+    Future<AllocateResponse> retry = pool.submit(heartbeat(0));
+    // the retry must wait for the heartbeat in the scheduler
+    Thread.sleep(200);
+    Assert.assertFalse(retry.isDone());
+
+    schedulerGate.countDown();
+    Assert.assertEquals(1, first.get().getResponseId());
+    Assert.assertEquals(1, retry.get().getResponseId());
+    verifySchedulerCalls(1);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 10000)
+  public void testFinishWaitsForHeartbeatInProgress() throws Exception {
+    schedulerGate = new CountDownLatch(1);
+    Future<AllocateResponse> heartbeat = pool.submit(heartbeat(0));
+    inScheduler.await();
+    Future<Object> finish = pool.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return asAM(new PrivilegedExceptionAction<Object>() {
+          @Override
+          public Object run() throws Exception {
+            return service.finishApplicationMaster(
+                FinishApplicationMasterRequest.newInstance(
+                    FinalApplicationStatus.SUCCEEDED, "", ""));
+          }
+        });
+      }
+    });
+    Thread.sleep(200);
+    // the unregistration is held back until the heartbeat is answered
+    Assert.assertFalse(finish.isDone());
+    verify(eventHandler, never()).handle(
+        isA(RMAppAttemptUnregistrationEvent.class));
+
+    schedulerGate.countDown();
+    Assert.assertEquals(1, heartbeat.get().getResponseId());
+    finish.get(5, TimeUnit.SECONDS);
+    verify(eventHandler, times(1)).handle(
+        isA(RMAppAttemptUnregistrationEvent.class));
+
+    // the next heartbeat is no longer held back by the finished unregistration
+    schedulerGate = null;
+    Assert.assertEquals(2, heartbeat(1).call().getResponseId());
+  }
+}
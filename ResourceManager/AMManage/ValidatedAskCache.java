@@ -0,0 +1,113 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.ResourceRequest;
+
+/**
+ * Remembers which asks of an attempt already passed validation. Validation
+ * of a {@link ResourceRequest} only depends on its capability and on the
+ * scheduler's maximum allocation, so an ask with a (priority, resource name,
+ * capability) seen before under the same maximum is not validated again.
+ */
+class ValidatedAskCache {
+
+  // an AM asking for more distinct locations than this starts over
+  static final int MAX_ENTRIES = 10000;
+
+  private static final class AskKey {
+    private final Priority priority;
+    private final String resourceName;
+    private final Resource capability;
+
+    AskKey(ResourceRequest ask) {
+      this.priority = ask.getPriority();
+      this.resourceName = ask.getResourceName();
+      this.capability = ask.getCapability();
+    }
+
+    @Override
+    public int hashCode() {
+      int result = 31 + (priority == null ? 0 : priority.hashCode());
+      result = 31 * result
+          + (resourceName == null ? 0 : resourceName.hashCode());
+      return 31 * result + (capability == null ? 0 : capability.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof AskKey)) {
+        return false;
+      }
+      AskKey other = (AskKey) obj;
+      return equal(priority, other.priority)
+          && equal(resourceName, other.resourceName)
+          && equal(capability, other.capability);
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  private final Set<AskKey> validated = new HashSet<AskKey>();
+  private Resource validatedAgainst;
+
+  /**
+   * @return the asks that still have to be validated against
+   *         <code>maximumResource</code>
+   */
+  synchronized List<ResourceRequest> getUnvalidated(List<ResourceRequest> ask,
+      Resource maximumResource) {
+    if (!maximumResource.equals(validatedAgainst)) {
+      validated.clear();
+      validatedAgainst = maximumResource;
+    }
+    if (validated.isEmpty()) {
+      return ask;
+    }
+    List<ResourceRequest> unvalidated = new ArrayList<ResourceRequest>();
+    for (ResourceRequest request : ask) {
+      if (!validated.contains(new AskKey(request))) {
+        unvalidated.add(request);
+      }
+    }
+    return unvalidated;
+  }
+
+  synchronized void addValidated(List<ResourceRequest> asks,
+      Resource maximumResource) {
+    if (!maximumResource.equals(validatedAgainst)) {
+      return;
+    }
+    if (validated.size() + asks.size() > MAX_ENTRIES) {
+      validated.clear();
+    }
+    for (ResourceRequest request : asks) {
+      validated.add(new AskKey(request));
+    }
+  }
+}
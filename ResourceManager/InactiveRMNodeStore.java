@@ -0,0 +1,407 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
+import org.apache.hadoop.yarn.util.Clock;
+import org.apache.hadoop.yarn.util.SystemClock;
+
+/**
+ * Bounded store of inactive (lost, decommissioned, rebooted) nodes keyed by
+ * host name. Once the store is full the node that was deactivated first is
+ * evicted, and nodes that have been inactive for longer than the configured
+ * TTL are dropped. Nodes are additionally indexed by their state so that
+ * state queries do not have to scan or copy the whole store.
+ *
+ * Eviction runs on every write. Reads only take the write lock to evict when
+ * the oldest node has outlived the TTL. Evicted nodes are taken off the
+ * inactive node counts of the {@link ClusterMetrics}, so those keep matching
+ * the store.
+ */
+@Private
+public class InactiveRMNodeStore extends AbstractMap<String, RMNode>
+    implements ConcurrentMap<String, RMNode> {
+
+  private static final Log LOG = LogFactory.getLog(InactiveRMNodeStore.class);
+
+  /** Maximum number of inactive nodes remembered by the RM. */
+  public static final String RM_INACTIVE_NODES_MAX =
+      YarnConfiguration.RM_PREFIX + "inactive-nodes.max-count";
+  public static final int DEFAULT_RM_INACTIVE_NODES_MAX = 10000;
+
+  /** Time after which an inactive node is forgotten, 0 to keep forever. */
+  public static final String RM_INACTIVE_NODES_TTL_MS =
+      YarnConfiguration.RM_PREFIX + "inactive-nodes.ttl-ms";
+  public static final long DEFAULT_RM_INACTIVE_NODES_TTL_MS = 0;
+
+  private static class InactiveNode {
+    private final RMNode node;
+    private final long deactivatedTime;
+    private NodeState indexedState;
+
+    InactiveNode(RMNode node, long deactivatedTime) {
+      this.node = node;
+      this.deactivatedTime = deactivatedTime;
+    }
+  }
+
+  // insertion ordered, so the head is always the oldest deactivation
+  private final LinkedHashMap<String, InactiveNode> nodes =
+      new LinkedHashMap<String, InactiveNode>();
+  private final Map<NodeState, Set<String>> stateIndex =
+      new EnumMap<NodeState, Set<String>>(NodeState.class);
+  private final ReentrantReadWriteLock.ReadLock readLock;
+  private final ReentrantReadWriteLock.WriteLock writeLock;
+  private final Clock clock;
+
+  private volatile int maxNodes = DEFAULT_RM_INACTIVE_NODES_MAX;
+  private volatile long ttlMs = DEFAULT_RM_INACTIVE_NODES_TTL_MS;
+
+  public InactiveRMNodeStore() {
+    this(new SystemClock());
+  }
+
+  public InactiveRMNodeStore(Clock clock) {
+    this.clock = clock;
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    this.readLock = lock.readLock();
+    this.writeLock = lock.writeLock();
+    for (NodeState state : NodeState.values()) {
+      stateIndex.put(state, new LinkedHashSet<String>());
+    }
+  }
+
+  public void reinitialize(Configuration conf) {
+    maxNodes = conf.getInt(RM_INACTIVE_NODES_MAX, DEFAULT_RM_INACTIVE_NODES_MAX);
+    ttlMs = conf.getLong(RM_INACTIVE_NODES_TTL_MS,
+        DEFAULT_RM_INACTIVE_NODES_TTL_MS);
+    writeLock.lock();
+    try {
+      evict();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns the inactive nodes currently in one of the given states.
+   */
+  public List<RMNode> getNodes(EnumSet<NodeState> states) {
+    evictExpired();
+    readLock.lock();
+    try {
+      List<RMNode> result = new ArrayList<RMNode>();
+      for (NodeState state : states) {
+        for (String host : stateIndex.get(state)) {
+          result.add(nodes.get(host).node);
+        }
+      }
+      return result;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public int getNumNodes(NodeState state) {
+    evictExpired();
+    readLock.lock();
+    try {
+      return stateIndex.get(state).size();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Re-indexes a node after its state machine moved it. Nodes are put into
+   * the store from inside their deactivation transition, i.e. before the
+   * final state is visible, so the node event dispatcher calls this once the
+   * transition has completed.
+   */
+  public void nodeStateUpdated(RMNode node) {
+    String host = node.getNodeID().getHost();
+    writeLock.lock();
+    try {
+      InactiveNode entry = nodes.get(host);
+      if (entry != null && entry.node == node) {
+        index(host, entry);
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void index(String host, InactiveNode entry) {
+    NodeState state = entry.node.getState();
+    if (state == entry.indexedState) {
+      return;
+    }
+    if (entry.indexedState != null) {
+      stateIndex.get(entry.indexedState).remove(host);
+    }
+    entry.indexedState = state;
+    stateIndex.get(state).add(host);
+  }
+
+  private InactiveNode unlink(String host) {
+    InactiveNode entry = nodes.remove(host);
+    if (entry != null && entry.indexedState != null) {
+      stateIndex.get(entry.indexedState).remove(host);
+    }
+    return entry;
+  }
+
+  // takes the write lock only if the oldest node has outlived the TTL
+  private void evictExpired() {
+    if (ttlMs <= 0) {
+      return;
+    }
+    boolean expired;
+    readLock.lock();
+    try {
+      expired = !nodes.isEmpty() && nodes.values().iterator().next()
+          .deactivatedTime < clock.getTime() - ttlMs;
+    } finally {
+      readLock.unlock();
+    }
+    if (expired) {
+      writeLock.lock();
+      try {
+        evict();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  private void evict() {
+    long expireBefore = ttlMs > 0 ? clock.getTime() - ttlMs : Long.MIN_VALUE;
+    Iterator<Map.Entry<String, InactiveNode>> it =
+        nodes.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, InactiveNode> e = it.next();
+      if (nodes.size() <= maxNodes
+          && e.getValue().deactivatedTime >= expireBefore) {
+        break;
+      }
+      it.remove();
+      NodeState state = e.getValue().indexedState;
+      if (state != null) {
+        stateIndex.get(state).remove(e.getKey());
+        decrInactiveNodeMetrics(state);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Evicting inactive node " + e.getKey());
+      }
+    }
+  }
+
+  private static void decrInactiveNodeMetrics(NodeState state) {
+    ClusterMetrics metrics = ClusterMetrics.getMetrics();
+    switch (state) {
+    case LOST:
+      metrics.decrNumLostNMs();
+      break;
+    case DECOMMISSIONED:
+      metrics.decrDecommisionedNMs();
+      break;
+    case REBOOTED:
+      metrics.decrNumRebootedNMs();
+      break;
+    default:
+      break;
+    }
+  }
+
+  @Override
+  public RMNode get(Object host) {
+    evictExpired();
+    readLock.lock();
+    try {
+      InactiveNode entry = nodes.get(host);
+      return entry == null ? null : entry.node;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object host) {
+    evictExpired();
+    readLock.lock();
+    try {
+      return nodes.containsKey(host);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    evictExpired();
+    readLock.lock();
+    try {
+      return nodes.size();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public RMNode put(String host, RMNode node) {
+    writeLock.lock();
+    try {
+      // re-inserting moves the node to the tail of the eviction order
+      InactiveNode old = unlink(host);
+      InactiveNode entry = new InactiveNode(node, clock.getTime());
+      nodes.put(host, entry);
+      index(host, entry);
+      evict();
+      return old == null ? null : old.node;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public RMNode putIfAbsent(String host, RMNode node) {
+    writeLock.lock();
+    try {
+      InactiveNode old = nodes.get(host);
+      if (old != null) {
+        return old.node;
+      }
+      return put(host, node);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public RMNode remove(Object host) {
+    if (!(host instanceof String)) {
+      return null;
+    }
+    writeLock.lock();
+    try {
+      InactiveNode old = unlink((String) host);
+      return old == null ? null : old.node;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object host, Object node) {
+    if (!(host instanceof String)) {
+      return false;
+    }
+    writeLock.lock();
+    try {
+      InactiveNode old = nodes.get(host);
+      if (old == null || !old.node.equals(node)) {
+        return false;
+      }
+      unlink((String) host);
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean replace(String host, RMNode oldNode, RMNode newNode) {
+    writeLock.lock();
+    try {
+      InactiveNode old = nodes.get(host);
+      if (old == null || !old.node.equals(oldNode)) {
+        return false;
+      }
+      put(host, newNode);
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public RMNode replace(String host, RMNode node) {
+    writeLock.lock();
+    try {
+      return nodes.containsKey(host) ? put(host, node) : null;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    writeLock.lock();
+    try {
+      nodes.clear();
+      for (Set<String> hosts : stateIndex.values()) {
+        hosts.clear();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Returns a read-only snapshot; prefer {@link #getNodes(EnumSet)} for state
+   * queries. The key set and values derived from it are read-only as well.
+   */
+  @Override
+  public Set<Map.Entry<String, RMNode>> entrySet() {
+    evictExpired();
+    readLock.lock();
+    try {
+      Set<Map.Entry<String, RMNode>> snapshot =
+          new HashSet<Map.Entry<String, RMNode>>(nodes.size());
+      for (Map.Entry<String, InactiveNode> e : nodes.entrySet()) {
+        snapshot.add(new SimpleImmutableEntry<String, RMNode>(e.getKey(),
+            e.getValue().node));
+      }
+      return Collections.unmodifiableSet(snapshot);
+    } finally {
+      readLock.unlock();
+    }
+  }
+}
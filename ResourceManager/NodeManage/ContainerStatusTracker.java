@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
+import org.apache.hadoop.yarn.api.records.NodeId;
+
+/**
+ * Tracks the last container statuses the RM has processed for every node, so
+ * that a heartbeat only forwards the containers whose state, exit status or
+ * diagnostics changed since the last acknowledged heartbeat. The statuses
+ * forwarded with a heartbeat are only acknowledged once the node's
+ * {@link org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode} has
+ * applied them, which the next heartbeat of the node checks. Every
+ * <code>fullResyncInterval</code> heartbeats, or whenever the node's
+ * response id does not match the one the acknowledged state belongs to, the
+ * full report is forwarded and the state is rebuilt from it.
+ * <p>
+ * A node that is not running, e.g. while it is UNHEALTHY, ignores the
+ * container statuses of its heartbeats. Such heartbeats are never
+ * acknowledged, so the node's reports are forwarded in full until the first
+ * heartbeat that a running node applied, one heartbeat after it turned
+ * healthy again.
+ */
+@Private
+public class ContainerStatusTracker {
+
+  private static class NodeContainerStates {
+    // the acknowledged statuses, as reported by the node
+    private final Map<ContainerId, ContainerStatus> states =
+        new HashMap<ContainerId, ContainerStatus>();
+    //与已确认状态对应的心跳响应ID
+    private int lastAckedResponseId = -1;
+    private int heartbeatsSinceResync = 0;
+    //已转发但尚未确认的状态及其心跳响应ID
+    private int pendingResponseId = -1;
+    private List<ContainerStatus> pendingStatuses;
+    private boolean pendingFull;
+  }
+
+  private final ConcurrentMap<NodeId, NodeContainerStates> nodes =
+      new ConcurrentHashMap<NodeId, NodeContainerStates>();
+  private final int fullResyncInterval;
+
+  public ContainerStatusTracker(int fullResyncInterval) {
+    this.fullResyncInterval = fullResyncInterval;
+  }
+
+  private static boolean sameStatus(ContainerStatus status,
+      ContainerStatus last) {
+    if (status.getState() != last.getState()
+        || status.getExitStatus() != last.getExitStatus()) {
+      return false;
+    }
+    String diagnostics = status.getDiagnostics();
+    return diagnostics == null ? last.getDiagnostics() == null
+        : diagnostics.equals(last.getDiagnostics());
+  }
+
+  /**
+   * Acknowledges the statuses forwarded with the last response if the node
+   * has applied them and has seen the response.
+   */
+  private static void ack(NodeContainerStates node, int remoteResponseId,
+      int appliedResponseId) {
+    if (node.pendingStatuses != null
+        && node.pendingResponseId == remoteResponseId
+        && node.pendingResponseId == appliedResponseId) {
+      if (node.pendingFull) {
+        node.states.clear();
+      }
+      for (ContainerStatus status : node.pendingStatuses) {
+        node.states.put(status.getContainerId(), status);
+      }
+      node.lastAckedResponseId = node.pendingResponseId;
+    }
+    node.pendingStatuses = null;
+  }
+
+  /**
+   * Returns the container statuses of this heartbeat that the RM has to
+   * process. They are acknowledged by the next heartbeat of the node, if by
+   * then the node has applied the status event of
+   * <code>nextResponseId</code>.
+   *
+   * @param remoteResponseId the response id the node reports
+   * @param nextResponseId the id of the response to this heartbeat
+   * @param appliedResponseId the id of the last response whose status event
+   *          the node has applied the container statuses of, or -1
+   * @param willApply whether the node will apply the container statuses of
+   *          this heartbeat, i.e. it is running and reports itself healthy
+   */
+  public List<ContainerStatus> pullChangedStatuses(NodeId nodeId,
+      int remoteResponseId, int nextResponseId, int appliedResponseId,
+      boolean willApply, List<ContainerStatus> reported) {
+    NodeContainerStates node = nodes.get(nodeId);
+    if (node == null) {
+      node = new NodeContainerStates();
+      NodeContainerStates old = nodes.putIfAbsent(nodeId, node);
+      if (old != null) {
+        node = old;
+      }
+    }
+
+    synchronized (node) {
+      ack(node, remoteResponseId, appliedResponseId);
+      boolean fullResync = node.lastAckedResponseId != remoteResponseId
+          || ++node.heartbeatsSinceResync >= fullResyncInterval;
+      List<ContainerStatus> changed = null;
+      if (fullResync) {
+        node.heartbeatsSinceResync = 0;
+        changed = reported;
+      } else {
+        for (ContainerStatus status : reported) {
+          ContainerStatus last = node.states.get(status.getContainerId());
+          if (last == null || !sameStatus(status, last)) {
+            if (changed == null) {
+              changed = new ArrayList<ContainerStatus>();
+            }
+            changed.add(status);
+          }
+        }
+        if (changed == null) {
+          changed = Collections.emptyList();
+        }
+      }
+      if (willApply) {
+        node.pendingResponseId = nextResponseId;
+        node.pendingStatuses = changed;
+        node.pendingFull = fullResync;
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * Forgets the tracked state of a node, e.g. when it (re)registers, so the
+   * next heartbeat is processed in full, or once it was deactivated.
+   */
+  public void removeNode(NodeId nodeId) {
+    nodes.remove(nodeId);
+  }
+}
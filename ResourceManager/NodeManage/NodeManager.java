@@ -20,10 +20,11 @@ package org.apache.hadoop.yarn.server.resourcemanager;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import junit.framework.Assert;
 
@@ -79,12 +80,16 @@ public class NodeManager implements ContainerManagementProtocol {
 
   final ResourceTrackerService resourceTrackerService;
   final FiCaSchedulerNode schedulerNode;
-  //ÿӦöӦб
-  final Map<ApplicationId, List<Container>> containers = 
-    new HashMap<ApplicationId, List<Container>>();
+  //ÿӦöӦб,ID
+  final ConcurrentMap<ApplicationId, ConcurrentMap<ContainerId, Container>> containers =
+    new ConcurrentHashMap<ApplicationId, ConcurrentMap<ContainerId, Container>>();
   
-  final Map<Container, ContainerStatus> containerStatusMap =
-      new HashMap<Container, ContainerStatus>();
+  final ConcurrentMap<ContainerId, ContainerStatus> containerStatusMap =
+      new ConcurrentHashMap<ContainerId, ContainerStatus>();
+
+  //ϴ״̬仯,ʱֻϱⲿ״̬
+  private final Set<ContainerId> updatedContainers = Collections
+      .newSetFromMap(new ConcurrentHashMap<ContainerId, Boolean>());
 
   public NodeManager(String hostName, int containerManagerPort, int httpPort,
       String rackName, Resource capability,
@@ -142,30 +147,62 @@ public class NodeManager implements ContainerManagementProtocol {
     return used;
   }
   
+  // heartbeat state, guarded by the monitor like the container changes
   int responseID = 0;
+
+  //ÿٴϱһȫ״̬
+  static final int FULL_STATUS_INTERVAL = 10;
+  private int heartbeatsSinceFullStatus = 0;
   
-  private List<ContainerStatus> getContainerStatuses(Map<ApplicationId, List<Container>> containers) {
+  /**
+   * Drains the containers whose status changed since the last heartbeat.
+   * Containers that have already been removed are skipped. Only called
+   * holding the monitor, so two heartbeats never split one set of updates.
+   */
+  private List<ContainerStatus> pullUpdatedContainerStatuses(
+      List<ContainerId> pulledIds) {
     List<ContainerStatus> containerStatuses = new ArrayList<ContainerStatus>();
-    for (List<Container> appContainers : containers.values()) {
-      for (Container container : appContainers) {
-        containerStatuses.add(containerStatusMap.get(container));
+    for (ContainerId containerId : updatedContainers) {
+      updatedContainers.remove(containerId);
+      pulledIds.add(containerId);
+      ContainerStatus status = containerStatusMap.get(containerId);
+      if (status != null) {
+        containerStatuses.add(status);
       }
     }
     return containerStatuses;
   }
   
   //
-  public void heartbeat() throws IOException, YarnException {
+  synchronized public void heartbeat() throws IOException, YarnException {
+    List<ContainerId> pulledIds = new ArrayList<ContainerId>();
+    List<ContainerStatus> containerStatuses =
+        pullUpdatedContainerStatuses(pulledIds);
+    // periodically send everything so the RM can resync its view
+    if (++heartbeatsSinceFullStatus >= FULL_STATUS_INTERVAL) {
+      heartbeatsSinceFullStatus = 0;
+      containerStatuses =
+          new ArrayList<ContainerStatus>(containerStatusMap.values());
+    }
     NodeStatus nodeStatus = 
       org.apache.hadoop.yarn.server.resourcemanager.NodeManager.createNodeStatus(
-          nodeId, getContainerStatuses(containers));
+          nodeId, containerStatuses);
     nodeStatus.setResponseId(responseID);
     NodeHeartbeatRequest request = recordFactory
         .newRecordInstance(NodeHeartbeatRequest.class);
     request.setNodeStatus(nodeStatus);
     //resourceTrackerServiceȡӦظ
-    NodeHeartbeatResponse response = resourceTrackerService
-        .nodeHeartbeat(request);
+    NodeHeartbeatResponse response;
+    try {
+      response = resourceTrackerService.nodeHeartbeat(request);
+    } catch (IOException e) {
+      // the RM never saw these updates, report them again next time
+      updatedContainers.addAll(pulledIds);
+      throw e;
+    } catch (YarnException e) {
+      updatedContainers.addAll(pulledIds);
+      throw e;
+    }
     responseID = response.getResponseId();
   }
   
@@ -189,18 +226,17 @@ public class NodeManager implements ContainerManagementProtocol {
       ApplicationId applicationId =
           containerID.getApplicationAttemptId().getApplicationId();
 
-      List<Container> applicationContainers = containers.get(applicationId);
+      ConcurrentMap<ContainerId, Container> applicationContainers =
+          containers.get(applicationId);
       if (applicationContainers == null) {
-        applicationContainers = new ArrayList<Container>();
+        applicationContainers = new ConcurrentHashMap<ContainerId, Container>();
         containers.put(applicationId, applicationContainers);
       }
 
       // Sanity check
-      for (Container container : applicationContainers) {
-        if (container.getId().compareTo(containerID) == 0) {
-          throw new IllegalStateException("Container " + containerID
-              + " already setup on node " + containerManagerAddress);
-        }
+      if (applicationContainers.containsKey(containerID)) {
+        throw new IllegalStateException("Container " + containerID
+            + " already setup on node " + containerManagerAddress);
       }
 
       Container container =
@@ -211,8 +247,9 @@ public class NodeManager implements ContainerManagementProtocol {
       ContainerStatus containerStatus =
           BuilderUtils.newContainerStatus(container.getId(),
             ContainerState.NEW, "", -1000);
-      applicationContainers.add(container);
-      containerStatusMap.put(container, containerStatus);
+      applicationContainers.put(containerID, container);
+      containerStatusMap.put(containerID, containerStatus);
+      updatedContainers.add(containerID);
       Resources.subtractFrom(available, tokenId.getResource());
       Resources.addTo(used, tokenId.getResource());
 
@@ -240,18 +277,16 @@ public class NodeManager implements ContainerManagementProtocol {
   synchronized public StopContainersResponse stopContainers(StopContainersRequest request) 
   throws YarnException {
     for (ContainerId containerID : request.getContainerIds()) {
-      String applicationId =
-          String.valueOf(containerID.getApplicationAttemptId()
-            .getApplicationId().getId());
+      ApplicationId applicationId =
+          containerID.getApplicationAttemptId().getApplicationId();
 
       // Mark the container as COMPLETE
-      List<Container> applicationContainers = containers.get(applicationId);
-      for (Container c : applicationContainers) {
-        if (c.getId().compareTo(containerID) == 0) {
-          ContainerStatus containerStatus = containerStatusMap.get(c);
-          containerStatus.setState(ContainerState.COMPLETE);
-          containerStatusMap.put(c, containerStatus);
-        }
+      ConcurrentMap<ContainerId, Container> applicationContainers =
+          containers.get(applicationId);
+      ContainerStatus containerStatus = containerStatusMap.get(containerID);
+      if (containerStatus != null) {
+        containerStatus.setState(ContainerState.COMPLETE);
+        updatedContainers.add(containerID);
       }
 
       // Send a heartbeat
@@ -262,21 +297,13 @@ public class NodeManager implements ContainerManagementProtocol {
       }
 
       // Remove container and update status
-      int ctr = 0;
-      Container container = null;
-      for (Iterator<Container> i = applicationContainers.iterator(); i
-        .hasNext();) {
-        container = i.next();
-        if (container.getId().compareTo(containerID) == 0) {
-          i.remove();
-          ++ctr;
-        }
-      }
-
-      if (ctr != 1) {
+      Container container = (applicationContainers == null) ? null
+          : applicationContainers.remove(containerID);
+      if (container == null) {
         throw new IllegalStateException("Container " + containerID
-            + " stopped " + ctr + " times!");
+            + " is not running on node " + containerManagerAddress);
       }
+      containerStatusMap.remove(containerID);
 
       Resources.addTo(available, container.getResource());
       Resources.subtractFrom(used, container.getResource());
@@ -290,23 +317,15 @@ public class NodeManager implements ContainerManagementProtocol {
     return StopContainersResponse.newInstance(null,null);
   }
 
+  // Reads only touch the concurrent indexes, so no need to hold the monitor
   @Override
-  synchronized public GetContainerStatusesResponse getContainerStatuses(
+  public GetContainerStatusesResponse getContainerStatuses(
       GetContainerStatusesRequest request) throws YarnException {
     List<ContainerStatus> statuses = new ArrayList<ContainerStatus>();
     for (ContainerId containerId : request.getContainerIds()) {
-      List<Container> appContainers =
-          containers.get(containerId.getApplicationAttemptId()
-            .getApplicationId());
-      Container container = null;
-      for (Container c : appContainers) {
-        if (c.getId().equals(containerId)) {
-          container = c;
-        }
-      }
-      if (container != null
-          && containerStatusMap.get(container).getState() != null) {
-        statuses.add(containerStatusMap.get(container));
+      ContainerStatus status = containerStatusMap.get(containerId);
+      if (status != null && status.getState() != null) {
+        statuses.add(status);
       }
     }
     return GetContainerStatusesResponse.newInstance(statuses, null);
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.hadoop.yarn.api.records.impl.pb.NodeReportPBImpl;
+import org.apache.hadoop.yarn.proto.YarnProtos.NodeReportProto;
+import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNodeReport;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.YarnScheduler;
+import org.apache.hadoop.yarn.server.utils.BuilderUtils;
+
+/**
+ * Versioned {@link NodeReport} per node. After every node event the node
+ * event dispatcher hands the node to {@link #nodeUpdated(RMNode)}, which
+ * bumps its version only if a field of the {@link RMNode} that shows up in
+ * the report changed: state, capability or health. That check stays off the
+ * scheduler, whose lock the dispatcher must not contend for on every
+ * heartbeat. The used resources and number of containers are read from the
+ * scheduler when a report is asked for, and a cached report is only handed
+ * out while they still match. Reports of the most
+ * recently deactivated nodes are kept as well, as those are the ones handed
+ * to every application after a node is lost. The cache holds the immutable
+ * protobuf of a report and hands out a new record around it on every call,
+ * as records are not safe to serialize from several threads at once.
+ */
+@Private
+public class NodeReportCache {
+
+  // number of deactivated nodes whose reports are kept
+  static final int MAX_INACTIVE_REPORTS = 1000;
+
+  /**
+   * The fields of a report that the {@link RMNode} changes during the life
+   * of a node.
+   */
+  private static final class ReportedFields {
+    private final NodeState state;
+    private final Resource capability;
+    private final String healthReport;
+    private final long lastHealthReportTime;
+
+    ReportedFields(RMNode node) {
+      this.state = node.getState();
+      this.capability = node.getTotalCapability();
+      this.healthReport = node.getHealthReport();
+      this.lastHealthReportTime = node.getLastHealthReportTime();
+    }
+
+    @Override
+    public int hashCode() {
+      int result = 31 + (state == null ? 0 : state.hashCode());
+      result = 31 * result + (capability == null ? 0 : capability.hashCode());
+      result = 31 * result
+          + (healthReport == null ? 0 : healthReport.hashCode());
+      return 31 * result
+          + (int) (lastHealthReportTime ^ (lastHealthReportTime >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ReportedFields)) {
+        return false;
+      }
+      ReportedFields other = (ReportedFields) obj;
+      return state == other.state
+          && equal(capability, other.capability)
+          && equal(healthReport, other.healthReport)
+          && lastHealthReportTime == other.lastHealthReportTime;
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  private static class CachedNodeReport {
+    private final long version;
+    private final RMNode node;
+    private final NodeReportProto report;
+    // copied, the scheduler updates its used resource in place
+    private final int usedMemory;
+    private final int usedVirtualCores;
+    private final int numContainers;
+
+    CachedNodeReport(long version, RMNode node, NodeReportProto report,
+        SchedulerNodeReport schedulerNodeReport) {
+      this.version = version;
+      this.node = node;
+      this.report = report;
+      if (schedulerNodeReport != null) {
+        Resource used = schedulerNodeReport.getUsedResource();
+        this.usedMemory = used.getMemory();
+        this.usedVirtualCores = used.getVirtualCores();
+        this.numContainers = schedulerNodeReport.getNumContainers();
+      } else {
+        this.usedMemory = 0;
+        this.usedVirtualCores = 0;
+        this.numContainers = 0;
+      }
+    }
+
+    boolean hasUsage(SchedulerNodeReport schedulerNodeReport) {
+      if (schedulerNodeReport == null) {
+        return usedMemory == 0 && usedVirtualCores == 0 && numContainers == 0;
+      }
+      Resource used = schedulerNodeReport.getUsedResource();
+      return usedMemory == used.getMemory()
+          && usedVirtualCores == used.getVirtualCores()
+          && numContainers == schedulerNodeReport.getNumContainers();
+    }
+  }
+
+  private final ConcurrentMap<NodeId, RMNode> activeNodes;
+  private final ConcurrentMap<NodeId, AtomicLong> versions =
+      new ConcurrentHashMap<NodeId, AtomicLong>();
+  private final ConcurrentMap<NodeId, CachedNodeReport> reports =
+      new ConcurrentHashMap<NodeId, CachedNodeReport>();
+  // reported fields as of the last version bump, per node
+  private final ConcurrentMap<NodeId, ReportedFields> reportedFields =
+      new ConcurrentHashMap<NodeId, ReportedFields>();
+  // deactivated nodes in the order they left, oldest first
+  private final LinkedHashSet<NodeId> inactiveNodes =
+      new LinkedHashSet<NodeId>();
+
+  public NodeReportCache(ConcurrentMap<NodeId, RMNode> activeNodes) {
+    this.activeNodes = activeNodes;
+  }
+
+  /**
+   * Invalidates the cached report of the node, unless none of the reported
+   * fields of the {@link RMNode} changed.
+   */
+  public void nodeUpdated(RMNode node) {
+    NodeId nodeId = node.getNodeID();
+    AtomicLong version = versions.get(nodeId);
+    if (version == null) {
+      version = new AtomicLong();
+      AtomicLong old = versions.putIfAbsent(nodeId, version);
+      if (old != null) {
+        version = old;
+      }
+    }
+    ReportedFields fields = new ReportedFields(node);
+    if (!fields.equals(reportedFields.put(nodeId, fields))) {
+      version.incrementAndGet();
+    }
+
+    boolean active = activeNodes.get(nodeId) == node;
+    synchronized (inactiveNodes) {
+      inactiveNodes.remove(nodeId);
+      if (active) {
+        return;
+      }
+      inactiveNodes.add(nodeId);
+      Iterator<NodeId> it = inactiveNodes.iterator();
+      while (inactiveNodes.size() > MAX_INACTIVE_REPORTS) {
+        NodeId evicted = it.next();
+        it.remove();
+        if (!activeNodes.containsKey(evicted)) {
+          versions.remove(evicted);
+          reports.remove(evicted);
+          reportedFields.remove(evicted);
+        }
+      }
+    }
+  }
+
+  public long getVersion(NodeId nodeId) {
+    AtomicLong version = versions.get(nodeId);
+    return version == null ? 0 : version.get();
+  }
+
+  /**
+   * @return the report of the node, from the cache if neither the node's
+   *         version nor the usage the scheduler reports for it changed
+   */
+  public NodeReport getNodeReport(RMNode rmNode, YarnScheduler scheduler) {
+    NodeId nodeId = rmNode.getNodeID();
+    SchedulerNodeReport schedulerNodeReport = scheduler.getNodeReport(nodeId);
+    AtomicLong version = versions.get(nodeId);
+    if (version == null) {
+      // not tracked (any more), e.g. a long gone node
+      return newNodeReport(rmNode, schedulerNodeReport);
+    }
+    long currentVersion = version.get();
+    CachedNodeReport cached = reports.get(nodeId);
+    if (cached != null && cached.node == rmNode
+        && cached.version == currentVersion
+        && cached.hasUsage(schedulerNodeReport)) {
+      return new NodeReportPBImpl(cached.report);
+    }
+    NodeReport report = newNodeReport(rmNode, schedulerNodeReport);
+    if (report instanceof NodeReportPBImpl) {
+      reports.put(nodeId, new CachedNodeReport(currentVersion, rmNode,
+          ((NodeReportPBImpl) report).getProto(), schedulerNodeReport));
+    }
+    return report;
+  }
+
+  public static NodeReport newNodeReport(RMNode rmNode,
+      YarnScheduler scheduler) {
+    return newNodeReport(rmNode, scheduler.getNodeReport(rmNode.getNodeID()));
+  }
+
+  private static NodeReport newNodeReport(RMNode rmNode,
+      SchedulerNodeReport schedulerNodeReport) {
+    Resource used = BuilderUtils.newResource(0, 0);
+    int numContainers = 0;
+    if (schedulerNodeReport != null) {
+      used = schedulerNodeReport.getUsedResource();
+      numContainers = schedulerNodeReport.getNumContainers();
+    }
+
+    return BuilderUtils.newNodeReport(rmNode.getNodeID(), rmNode.getState(),
+        rmNode.getHttpAddress(), rmNode.getRackName(), used,
+        rmNode.getTotalCapability(), numContainers,
+        rmNode.getHealthReport(),
+        rmNode.getLastHealthReportTime());
+  }
+}
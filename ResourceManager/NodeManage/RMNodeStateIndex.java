@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
+
+/**
+ * Index of the nodes known to the RM by their {@link NodeState}. Active
+ * nodes are indexed here, inactive ones by the {@link InactiveRMNodeStore}.
+ * The node event dispatcher calls {@link #update(RMNode)} after every node
+ * transition, so state queries only touch the nodes in the requested states.
+ */
+@Private
+//节点状态索引,节点状态转换后由节点事件分发器更新
+public class RMNodeStateIndex {
+
+  private static final EnumSet<NodeState> INACTIVE_STATES = EnumSet.of(
+      NodeState.DECOMMISSIONED, NodeState.LOST, NodeState.REBOOTED);
+
+  private final ConcurrentMap<NodeId, RMNode> activeNodes;
+  private final InactiveRMNodeStore inactiveNodes;
+  private final Map<NodeState, ConcurrentMap<NodeId, RMNode>> nodesByState =
+      new EnumMap<NodeState, ConcurrentMap<NodeId, RMNode>>(NodeState.class);
+  private final ConcurrentMap<NodeId, NodeState> indexedStates =
+      new ConcurrentHashMap<NodeId, NodeState>();
+
+  public RMNodeStateIndex(ConcurrentMap<NodeId, RMNode> activeNodes,
+      InactiveRMNodeStore inactiveNodes) {
+    this.activeNodes = activeNodes;
+    this.inactiveNodes = inactiveNodes;
+    for (NodeState state : NodeState.values()) {
+      nodesByState.put(state, new ConcurrentHashMap<NodeId, RMNode>());
+    }
+  }
+
+  /**
+   * Moves the node to the bucket of its current state, or drops it from the
+   * active index once it is no longer an active node.
+   */
+  public synchronized void update(RMNode node) {
+    NodeId nodeId = node.getNodeID();
+    NodeState oldState = indexedStates.get(nodeId);
+    if (activeNodes.get(nodeId) != node) {
+      // deactivated, or replaced by a reconnected node
+      if (oldState != null && nodesByState.get(oldState).remove(nodeId, node)) {
+        indexedStates.remove(nodeId);
+      }
+      inactiveNodes.nodeStateUpdated(node);
+      return;
+    }
+    NodeState newState = node.getState();
+    if (oldState != null) {
+      nodesByState.get(oldState).remove(nodeId);
+    }
+    nodesByState.get(newState).put(nodeId, node);
+    indexedStates.put(nodeId, newState);
+  }
+
+  /**
+   * Returns the active and inactive nodes in one of the accepted states.
+   */
+  public List<RMNode> queryRMNodes(EnumSet<NodeState> acceptedStates) {
+    List<RMNode> results = new ArrayList<RMNode>();
+    EnumSet<NodeState> inactiveStates = EnumSet.noneOf(NodeState.class);
+    for (NodeState state : acceptedStates) {
+      if (INACTIVE_STATES.contains(state)) {
+        inactiveStates.add(state);
+      } else {
+        results.addAll(nodesByState.get(state).values());
+      }
+    }
+    if (!inactiveStates.isEmpty()) {
+      results.addAll(inactiveNodes.getNodes(inactiveStates));
+    }
+    return results;
+  }
+
+  public int getNumNodes(NodeState state) {
+    return INACTIVE_STATES.contains(state) ? inactiveNodes.getNumNodes(state)
+        : nodesByState.get(state).size();
+  }
+}
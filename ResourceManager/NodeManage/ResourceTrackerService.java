@@ -19,6 +19,7 @@ package org.apache.hadoop.yarn.server.resourcemanager;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,9 +29,12 @@ import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.authorize.PolicyProvider;
 import org.apache.hadoop.service.AbstractService;
+import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.NodeState;
 import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.exceptions.YarnException;
 import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
 import org.apache.hadoop.yarn.factories.RecordFactory;
@@ -62,6 +66,19 @@ public class ResourceTrackerService extends AbstractService implements
 
   private static final Log LOG = LogFactory.getLog(ResourceTrackerService.class);
 
+  /** Forward only the container statuses that changed since the last heartbeat. */
+  public static final String RM_NM_CONTAINER_STATUS_DELTA_ENABLED =
+      YarnConfiguration.RM_PREFIX + "nm-container-status-delta.enabled";
+  public static final boolean DEFAULT_RM_NM_CONTAINER_STATUS_DELTA_ENABLED =
+      false;
+
+  /** Number of heartbeats after which a node's full report is processed. */
+  public static final String RM_NM_CONTAINER_STATUS_FULL_RESYNC_INTERVAL =
+      YarnConfiguration.RM_PREFIX
+          + "nm-container-status-delta.full-resync-interval";
+  public static final int DEFAULT_RM_NM_CONTAINER_STATUS_FULL_RESYNC_INTERVAL =
+      30;
+
   private static final RecordFactory recordFactory = 
     RecordFactoryProvider.getRecordFactory(null);
   //资源管理器上下文
@@ -89,6 +106,8 @@ public class ResourceTrackerService extends AbstractService implements
   private int minAllocMb;
   //最小分配的核数大小
   private int minAllocVcores;
+  //容器状态增量跟踪器,未开启增量模式时为null
+  private ContainerStatusTracker containerStatusTracker;
 
   static {
     resync.setNodeAction(NodeAction.RESYNC);
@@ -133,6 +152,31 @@ public class ResourceTrackerService extends AbstractService implements
     minAllocVcores = conf.getInt(
     	YarnConfiguration.RM_SCHEDULER_MINIMUM_ALLOCATION_VCORES,
     	YarnConfiguration.DEFAULT_RM_SCHEDULER_MINIMUM_ALLOCATION_VCORES);
+
+    if (conf.getBoolean(RM_NM_CONTAINER_STATUS_DELTA_ENABLED,
+        DEFAULT_RM_NM_CONTAINER_STATUS_DELTA_ENABLED)) {
+      int fullResyncInterval =
+          conf.getInt(RM_NM_CONTAINER_STATUS_FULL_RESYNC_INTERVAL,
+              DEFAULT_RM_NM_CONTAINER_STATUS_FULL_RESYNC_INTERVAL);
+      if (fullResyncInterval <= 0) {
+        throw new YarnRuntimeException("Invalid Configuration. "
+            + RM_NM_CONTAINER_STATUS_FULL_RESYNC_INTERVAL
+            + " should be larger than 0.");
+      }
+      containerStatusTracker = new ContainerStatusTracker(fullResyncInterval);
+      // runs after the NodeEventDispatcher, which deactivates nodes
+      rmContext.getDispatcher().register(RMNodeEventType.class,
+          new EventHandler<RMNodeEvent>() {
+            @Override
+            public void handle(RMNodeEvent event) {
+              NodeId nodeId = event.getNodeId();
+              if (!rmContext.getRMNodes().containsKey(nodeId)) {
+                // lost, decommissioned or rebooted nodes may never return
+                containerStatusTracker.removeNode(nodeId);
+              }
+            }
+          });
+    }
     
     super.serviceInit(conf);
   }
@@ -222,6 +266,7 @@ public class ResourceTrackerService extends AbstractService implements
 
     RMNode oldNode = this.rmContext.getRMNodes().putIfAbsent(nodeId, rmNode);
     if (oldNode == null) {
+      this.rmContext.getRMNodeStateIndex().update(rmNode);
       //如果是老的节点,则触发一次节点启动事件
       this.rmContext.getDispatcher().getEventHandler().handle(
           new RMNodeEvent(nodeId, RMNodeEventType.STARTED));
@@ -234,6 +279,9 @@ public class ResourceTrackerService extends AbstractService implements
     // On every node manager register we will be clearing NMToken keys if
     // present for any running application.
     this.nmTokenSecretManager.removeNodeKey(nodeId);
+    if (containerStatusTracker != null) {
+      containerStatusTracker.removeNode(nodeId);
+    }
     //同时将节点注册到节点存活监控线程中
     this.nmLivelinessMonitor.register(nodeId);
 
@@ -325,9 +373,22 @@ public class ResourceTrackerService extends AbstractService implements
     populateKeys(request, nodeHeartBeatResponse);
 
     // 4. Send status to RMNode, saving the latest response.
+    List<ContainerStatus> containerStatuses =
+        remoteNodeStatus.getContainersStatuses();
+    if (containerStatusTracker != null) {
+      // RMNodeImpl sets its last response once it handled the status event,
+      // it only applies the container statuses while running and healthy
+      boolean willApply = rmNode.getState() == NodeState.RUNNING
+          && remoteNodeStatus.getNodeHealthStatus().getIsNodeHealthy();
+      containerStatuses = containerStatusTracker.pullChangedStatuses(nodeId,
+          remoteNodeStatus.getResponseId(),
+          nodeHeartBeatResponse.getResponseId(),
+          lastNodeHeartbeatResponse.getResponseId(), willApply,
+          containerStatuses);
+    }
     this.rmContext.getDispatcher().getEventHandler().handle(
         new RMNodeStatusEvent(nodeId, remoteNodeStatus.getNodeHealthStatus(),
-            remoteNodeStatus.getContainersStatuses(), 
+            containerStatuses, 
             remoteNodeStatus.getKeepAliveApplications(), nodeHeartBeatResponse));
 
     return nodeHeartBeatResponse;
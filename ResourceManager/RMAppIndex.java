@@ -0,0 +1,293 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience.Private;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
+
+/**
+ * Secondary indexes of the applications in {@link RMContext#getRMApps()} by
+ * state, type, user and queue. The application event dispatcher calls
+ * {@link #update(RMApp)} after every application transition, so a filtered
+ * query only touches the applications of its most selective filter.
+ *
+ * Applications leave the RM map without an event once too many completed
+ * ones are retained; such entries are dropped when a query runs into them
+ * and, in bulk, once the index has grown well past the map.
+ */
+@Private
+//应用二级索引,应用状态转换后由应用事件分发器更新
+public class RMAppIndex {
+
+  // index entries tolerated for apps already gone from the RM map
+  static final int PURGE_SLACK = 1000;
+  // type key of apps without an application type
+  private static final String NO_TYPE = "";
+
+  private final ConcurrentMap<ApplicationId, RMApp> apps;
+  private final Map<YarnApplicationState, ConcurrentMap<ApplicationId, RMApp>>
+      appsByState = new EnumMap<YarnApplicationState,
+          ConcurrentMap<ApplicationId, RMApp>>(YarnApplicationState.class);
+  private final ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>>
+      appsByType =
+          new ConcurrentHashMap<String, ConcurrentMap<ApplicationId, RMApp>>();
+  private final ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>>
+      appsByUser =
+          new ConcurrentHashMap<String, ConcurrentMap<ApplicationId, RMApp>>();
+  private final ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>>
+      appsByQueue =
+          new ConcurrentHashMap<String, ConcurrentMap<ApplicationId, RMApp>>();
+  private final ConcurrentMap<ApplicationId, YarnApplicationState>
+      indexedStates =
+          new ConcurrentHashMap<ApplicationId, YarnApplicationState>();
+  // queue an app is indexed under, apps can be moved between queues
+  private final ConcurrentMap<ApplicationId, String> indexedQueues =
+      new ConcurrentHashMap<ApplicationId, String>();
+  // number of transitions seen per app
+  private final ConcurrentMap<ApplicationId, Long> versions =
+      new ConcurrentHashMap<ApplicationId, Long>();
+
+  public RMAppIndex(ConcurrentMap<ApplicationId, RMApp> apps) {
+    this.apps = apps;
+    for (YarnApplicationState state : YarnApplicationState.values()) {
+      appsByState.put(state, new ConcurrentHashMap<ApplicationId, RMApp>());
+    }
+  }
+
+  /**
+   * Moves the application to the bucket of its current state, indexing it
+   * first if it is new, or drops it once it is gone from the RM map.
+   */
+  public synchronized void update(RMApp app) {
+    ApplicationId appId = app.getApplicationId();
+    if (apps.get(appId) != app) {
+      remove(appId, app);
+      return;
+    }
+    Long version = versions.get(appId);
+    versions.put(appId, version == null ? 1 : version + 1);
+    YarnApplicationState newState = app.createApplicationState();
+    YarnApplicationState oldState = indexedStates.put(appId, newState);
+    if (oldState == null) {
+      bucket(appsByType, typeKey(app)).put(appId, app);
+      bucket(appsByUser, app.getUser()).put(appId, app);
+    } else if (oldState != newState) {
+      appsByState.get(oldState).remove(appId);
+    }
+    String queue = app.getQueue();
+    String oldQueue = indexedQueues.put(appId, queue);
+    if (!queue.equals(oldQueue)) {
+      if (oldQueue != null) {
+        removeFrom(appsByQueue, oldQueue, appId);
+      }
+      bucket(appsByQueue, queue).put(appId, app);
+    }
+    appsByState.get(newState).put(appId, app);
+
+    if (indexedStates.size() > apps.size() + PURGE_SLACK) {
+      purgeRemoved();
+    }
+  }
+
+  /**
+   * Returns the applications matching all given filters; a null or empty
+   * filter matches every application.
+   */
+  public List<RMApp> queryApps(Set<String> types,
+      EnumSet<YarnApplicationState> states, String user, String queue) {
+    boolean anyType = types == null || types.isEmpty();
+    boolean anyState = states == null || states.isEmpty();
+
+    // start from the smallest candidate set
+    Collection<RMApp> candidates = null;
+    if (user != null) {
+      candidates = smaller(candidates, get(appsByUser, user));
+    }
+    if (queue != null) {
+      candidates = smaller(candidates, get(appsByQueue, queue));
+    }
+    if (!anyState) {
+      candidates = smaller(candidates, union(appsByStates(states)));
+    }
+    if (!anyType) {
+      candidates = smaller(candidates, union(appsByTypes(types)));
+    }
+    if (candidates == null) {
+      candidates = apps.values();
+    }
+
+    List<RMApp> results = new ArrayList<RMApp>();
+    for (RMApp app : candidates) {
+      if (apps.get(app.getApplicationId()) != app) {
+        remove(app.getApplicationId(), app);
+        continue;
+      }
+      if ((anyType || types.contains(app.getApplicationType()))
+          && (anyState || states.contains(app.createApplicationState()))
+          && (user == null || user.equals(app.getUser()))
+          && (queue == null || queue.equals(app.getQueue()))) {
+        results.add(app);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return a number that changes whenever the application went through a
+   *         transition, -1 if the application is not indexed
+   */
+  public long getVersion(ApplicationId appId) {
+    Long version = versions.get(appId);
+    return version == null ? -1 : version;
+  }
+
+  /**
+   * Returns the applications in any of the given queues.
+   */
+  public List<RMApp> queryAppsInQueues(Collection<String> queues) {
+    List<RMApp> results = new ArrayList<RMApp>();
+    for (String queue : queues) {
+      for (RMApp app : get(appsByQueue, queue)) {
+        if (apps.get(app.getApplicationId()) != app) {
+          remove(app.getApplicationId(), app);
+        } else if (queue.equals(app.getQueue())) {
+          results.add(app);
+        }
+      }
+    }
+    return results;
+  }
+
+  public int getNumApps(YarnApplicationState state) {
+    return appsByState.get(state).size();
+  }
+
+  private List<Collection<RMApp>> appsByStates(
+      EnumSet<YarnApplicationState> states) {
+    List<Collection<RMApp>> buckets = new ArrayList<Collection<RMApp>>();
+    for (YarnApplicationState state : states) {
+      buckets.add(appsByState.get(state).values());
+    }
+    return buckets;
+  }
+
+  private List<Collection<RMApp>> appsByTypes(Set<String> types) {
+    List<Collection<RMApp>> buckets = new ArrayList<Collection<RMApp>>();
+    for (String type : types) {
+      buckets.add(get(appsByType, type == null ? NO_TYPE : type));
+    }
+    return buckets;
+  }
+
+  // an app has exactly one state and type, the buckets never overlap
+  private static Collection<RMApp> union(List<Collection<RMApp>> buckets) {
+    if (buckets.size() == 1) {
+      return buckets.get(0);
+    }
+    List<RMApp> union = new ArrayList<RMApp>();
+    for (Collection<RMApp> bucket : buckets) {
+      union.addAll(bucket);
+    }
+    return union;
+  }
+
+  private static Collection<RMApp> smaller(Collection<RMApp> current,
+      Collection<RMApp> other) {
+    return current == null || other.size() < current.size() ? other : current;
+  }
+
+  private static Collection<RMApp> get(
+      ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>> index,
+      String key) {
+    ConcurrentMap<ApplicationId, RMApp> bucket = index.get(key);
+    return bucket == null ? Collections.<RMApp>emptyList() : bucket.values();
+  }
+
+  private static ConcurrentMap<ApplicationId, RMApp> bucket(
+      ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>> index,
+      String key) {
+    ConcurrentMap<ApplicationId, RMApp> bucket = index.get(key);
+    if (bucket == null) {
+      bucket = new ConcurrentHashMap<ApplicationId, RMApp>();
+      ConcurrentMap<ApplicationId, RMApp> old = index.putIfAbsent(key, bucket);
+      if (old != null) {
+        bucket = old;
+      }
+    }
+    return bucket;
+  }
+
+  private static String typeKey(RMApp app) {
+    String type = app.getApplicationType();
+    return type == null ? NO_TYPE : type;
+  }
+
+  private synchronized void remove(ApplicationId appId, RMApp app) {
+    YarnApplicationState state = indexedStates.get(appId);
+    if (state == null || !appsByState.get(state).remove(appId, app)) {
+      return;
+    }
+    indexedStates.remove(appId);
+    versions.remove(appId);
+    removeFrom(appsByType, typeKey(app), appId);
+    removeFrom(appsByUser, app.getUser(), appId);
+    String queue = indexedQueues.remove(appId);
+    if (queue != null) {
+      removeFrom(appsByQueue, queue, appId);
+    }
+  }
+
+  private static void removeFrom(
+      ConcurrentMap<String, ConcurrentMap<ApplicationId, RMApp>> index,
+      String key, ApplicationId appId) {
+    ConcurrentMap<ApplicationId, RMApp> bucket = index.get(key);
+    if (bucket != null) {
+      bucket.remove(appId);
+      if (bucket.isEmpty()) {
+        index.remove(key, bucket);
+      }
+    }
+  }
+
+  private void purgeRemoved() {
+    for (Map.Entry<ApplicationId, YarnApplicationState> entry
+        : indexedStates.entrySet()) {
+      ApplicationId appId = entry.getKey();
+      if (!apps.containsKey(appId)) {
+        RMApp app = appsByState.get(entry.getValue()).get(appId);
+        if (app != null) {
+          remove(appId, app);
+        }
+      }
+    }
+  }
+}
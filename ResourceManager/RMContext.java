@@ -48,8 +48,16 @@ public interface RMContext {
   ConcurrentMap<ApplicationId, RMApp> getRMApps();
   //ȡƽڵӳб
   ConcurrentMap<String, RMNode> getInactiveRMNodes();
+  //ȡнķǻԾڵ洢
+  InactiveRMNodeStore getInactiveRMNodeStore();
   //ȡIDڵӳб
   ConcurrentMap<NodeId, RMNode> getRMNodes();
+  //ȡ״̬Ľڵб
+  RMNodeStateIndex getRMNodeStateIndex();
+  //ȡڵ㱨滺
+  NodeReportCache getNodeReportCache();
+  //ȡӦö
+  RMAppIndex getRMAppIndex();
   //ȡеAM߳
   AMLivelinessMonitor getAMLivelinessMonitor();
   //ȡнAM߳
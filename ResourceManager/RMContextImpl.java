@@ -47,12 +47,18 @@ public class RMContextImpl implements RMContext {
   //Ӧб
   private final ConcurrentMap<ApplicationId, RMApp> applications
     = new ConcurrentHashMap<ApplicationId, RMApp>();
+  //Ӧö
+  private final RMAppIndex appIndex = new RMAppIndex(applications);
   //ڵб
   private final ConcurrentMap<NodeId, RMNode> nodes
     = new ConcurrentHashMap<NodeId, RMNode>();
-  //ǻԾ״̬ڵб
-  private final ConcurrentMap<String, RMNode> inactiveNodes
-    = new ConcurrentHashMap<String, RMNode>();
+  //ǻԾ״̬ڵб,޲ڵ״̬
+  private final InactiveRMNodeStore inactiveNodes = new InactiveRMNodeStore();
+  //ڵ״̬
+  private final RMNodeStateIndex nodeStateIndex =
+      new RMNodeStateIndex(nodes, inactiveNodes);
+  //ڵ㱨滺
+  private final NodeReportCache nodeReportCache = new NodeReportCache(nodes);
   //ApplicationMaster̼߳
   private AMLivelinessMonitor amLivelinessMonitor;
   //ApplicationMasterн̼߳
@@ -143,6 +149,26 @@ public class RMContextImpl implements RMContext {
     return this.inactiveNodes;
   }
 
+  @Override
+  public InactiveRMNodeStore getInactiveRMNodeStore() {
+    return this.inactiveNodes;
+  }
+
+  @Override
+  public RMNodeStateIndex getRMNodeStateIndex() {
+    return this.nodeStateIndex;
+  }
+
+  @Override
+  public NodeReportCache getNodeReportCache() {
+    return this.nodeReportCache;
+  }
+
+  @Override
+  public RMAppIndex getRMAppIndex() {
+    return this.appIndex;
+  }
+
   @Override
   public ContainerAllocationExpirer getContainerAllocationExpirer() {
     return this.containerAllocationExpirer;
@@ -227,6 +227,7 @@ public class ResourceManager extends CompositeService implements Recoverable {
           amFinishingMonitor, delegationTokenRenewer, this.amRmTokenSecretManager,
           this.containerTokenSecretManager, this.nmTokenSecretManager,
           this.clientToAMSecretManager);
+    this.rmContext.getInactiveRMNodeStore().reinitialize(conf);
     
     // Register event handler for NodesListManager
     this.nodesListManager = new NodesListManager(this.rmContext);
@@ -527,6 +528,7 @@ public class ResourceManager extends CompositeService implements Recoverable {
           LOG.error("Error in handling event type " + event.getType()
               + " for application " + appID, t);
         }
+        this.rmContext.getRMAppIndex().update(rmApp);
       }
     }
   }
@@ -607,6 +609,8 @@ public class ResourceManager extends CompositeService implements Recoverable {
       if (node != null) {
         try {
           ((EventHandler<RMNodeEvent>) node).handle(event);
+          this.rmContext.getRMNodeStateIndex().update(node);
+          this.rmContext.getNodeReportCache().nodeUpdated(node);
         } catch (Throwable t) {
           LOG.error("Error in handling event type " + event.getType()
               + " for node " + nodeId, t);
@@ -23,7 +23,17 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +51,7 @@ import org.apache.hadoop.security.token.delegation.DelegationKey;
 import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
 import org.apache.hadoop.yarn.proto.YarnServerResourceManagerServiceProtos.ApplicationAttemptStateDataProto;
 import org.apache.hadoop.yarn.proto.YarnServerResourceManagerServiceProtos.ApplicationStateDataProto;
 import org.apache.hadoop.yarn.security.client.RMDelegationTokenIdentifier;
@@ -49,6 +60,7 @@ import org.apache.hadoop.yarn.server.resourcemanager.recovery.records.impl.pb.Ap
 import org.apache.hadoop.yarn.util.ConverterUtils;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Private
 @Unstable
@@ -63,6 +75,11 @@ public class FileSystemRMStateStore extends RMStateStore {
 
   public static final Log LOG = LogFactory.getLog(FileSystemRMStateStore.class);
 
+  /** Threads writing the state of applications submitted close together. */
+  public static final String FS_RM_STATE_STORE_STORE_THREADS =
+      YarnConfiguration.RM_PREFIX + "fs.state-store.store-threads";
+  public static final int DEFAULT_FS_RM_STATE_STORE_STORE_THREADS = 1;
+
   private static final String ROOT_DIR_NAME = "FSRMStateRoot";
   private static final String RM_DT_SECRET_MANAGER_ROOT = "RMDTSecretManagerRoot";
   private static final String RM_APP_ROOT = "RMAppRoot";
@@ -79,6 +96,10 @@ public class FileSystemRMStateStore extends RMStateStore {
   private Path rmAppRoot;
   private Path dtSequenceNumberPath = null;
 
+  //дӦ״̬̳߳߳
+  private int storeThreads;
+  private volatile ExecutorService storeExecutor;
+
   @VisibleForTesting
   Path fsWorkingPath;
 
@@ -90,6 +111,12 @@ public class FileSystemRMStateStore extends RMStateStore {
     rootDirPath = new Path(fsWorkingPath, ROOT_DIR_NAME);
     rmDTSecretManagerRoot = new Path(rootDirPath, RM_DT_SECRET_MANAGER_ROOT);
     rmAppRoot = new Path(rootDirPath, RM_APP_ROOT);
+    storeThreads = conf.getInt(FS_RM_STATE_STORE_STORE_THREADS,
+        DEFAULT_FS_RM_STATE_STORE_STORE_THREADS);
+    if (storeThreads < 1) {
+      throw new YarnRuntimeException("Invalid Configuration. "
+          + FS_RM_STATE_STORE_STORE_THREADS + " should be at least 1.");
+    }
   }
 
   @Override
@@ -101,10 +128,20 @@ public class FileSystemRMStateStore extends RMStateStore {
     fs = fsWorkingPath.getFileSystem(getConfig());
     fs.mkdirs(rmDTSecretManagerRoot);
     fs.mkdirs(rmAppRoot);
+    if (storeThreads > 1) {
+      storeExecutor = Executors.newFixedThreadPool(storeThreads,
+          new ThreadFactoryBuilder()
+              .setNameFormat("FileSystemRMStateStore #%d")
+              .setDaemon(true).build());
+    }
   }
 
   @Override
   protected synchronized void closeInternal() throws Exception {
+    if (storeExecutor != null) {
+      storeExecutor.shutdownNow();
+      storeExecutor = null;
+    }
     fs.close();
   }
 
@@ -227,6 +264,62 @@ public class FileSystemRMStateStore extends RMStateStore {
   @Override
   public synchronized void storeApplicationState(String appId,
       ApplicationStateDataPBImpl appStateDataPB) throws Exception {
+    writeApplicationState(appId, appStateDataPB);
+  }
+
+  /**
+   * Writes the applications of a batch from several threads, each into its
+   * own directory, so one slow file system round trip does not hold up the
+   * applications submitted after it. Runs without the store's lock, which
+   * {@link #closeInternal()} may take meanwhile to cancel the writes.
+   */
+  @Override
+  protected Map<ApplicationId, Exception> storeApplicationStates(
+      Map<ApplicationId, ApplicationStateDataPBImpl> appStates) {
+    ExecutorService executor = storeExecutor;
+    if (executor == null || appStates.size() == 1) {
+      return super.storeApplicationStates(appStates);
+    }
+    Map<ApplicationId, Exception> failures =
+        new HashMap<ApplicationId, Exception>();
+    Map<ApplicationId, Future<Void>> writes =
+        new LinkedHashMap<ApplicationId, Future<Void>>();
+    for (final Map.Entry<ApplicationId, ApplicationStateDataPBImpl> entry
+        : appStates.entrySet()) {
+      try {
+        writes.put(entry.getKey(), executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            writeApplicationState(entry.getKey().toString(),
+                entry.getValue());
+            return null;
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // the store is closing
+        failures.put(entry.getKey(), e);
+      }
+    }
+    for (Map.Entry<ApplicationId, Future<Void>> write : writes.entrySet()) {
+      try {
+        write.getValue().get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        failures.put(write.getKey(),
+            cause instanceof Exception ? (Exception) cause : e);
+      } catch (CancellationException e) {
+        failures.put(write.getKey(), e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failures.put(write.getKey(), e);
+      }
+    }
+    return failures;
+  }
+
+  //дӦ״̬,бԱ㲢д
+  private void writeApplicationState(String appId,
+      ApplicationStateDataPBImpl appStateDataPB) throws Exception {
     Path appDirPath = getAppDir(rmAppRoot, appId);
     fs.mkdirs(appDirPath);
     //ȡдĿ¼·
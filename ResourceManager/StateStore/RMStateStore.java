@@ -21,8 +21,10 @@ package org.apache.hadoop.yarn.server.resourcemanager.recovery;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.crypto.SecretKey;
 
@@ -199,6 +201,9 @@ public abstract class RMStateStore extends AbstractService {
   }
   
   AsyncDispatcher dispatcher;
+  // applications waiting to be stored, drained in batches by STORE_APP
+  private final ConcurrentLinkedQueue<ApplicationState> pendingAppStores =
+      new ConcurrentLinkedQueue<ApplicationState>();
   
   public synchronized void serviceInit(Configuration conf) throws Exception{    
     // create async handler
@@ -260,6 +265,7 @@ public abstract class RMStateStore extends AbstractService {
     assert context instanceof ApplicationSubmissionContextPBImpl;
     ApplicationState appState = new ApplicationState(
         app.getSubmitTime(), context, app.getUser());
+    pendingAppStores.add(appState);
     //һӦϢ¼¼ַ
     dispatcher.getEventHandler().handle(new RMStateStoreAppEvent(appState));
   }
@@ -273,6 +279,29 @@ public abstract class RMStateStore extends AbstractService {
   protected abstract void storeApplicationState(String appId,
                                       ApplicationStateDataPBImpl appStateData) 
                                       throws Exception;
+
+  /**
+   * Blocking API
+   * Stores the state of several applications submitted close together. The
+   * default stores them one by one; derived classes may override this to
+   * write them more efficiently.
+   * @return the exceptions of the applications that could not be stored
+   * Ӧ״̬Ϣ
+   */
+  protected Map<ApplicationId, Exception> storeApplicationStates(
+      Map<ApplicationId, ApplicationStateDataPBImpl> appStates) {
+    Map<ApplicationId, Exception> failures =
+        new HashMap<ApplicationId, Exception>();
+    for (Map.Entry<ApplicationId, ApplicationStateDataPBImpl> entry
+        : appStates.entrySet()) {
+      try {
+        storeApplicationState(entry.getKey().toString(), entry.getValue());
+      } catch (Exception e) {
+        failures.put(entry.getKey(), e);
+      }
+    }
+    return failures;
+  }
   
   @SuppressWarnings("unchecked")
   /**
@@ -436,34 +465,60 @@ public abstract class RMStateStore extends AbstractService {
   }
 
   // Dispatcher related code
+
+  /**
+   * Stores every application queued by {@link #storeApplication(RMApp)} as
+   * one batch. Runs without the store's lock: a batch may take many file
+   * system round trips, during which the RM dispatcher must still be able to
+   * queue further applications and the store must still be able to stop.
+   */
+  private void storeApps() {
+    // store every application submitted meanwhile as well, the STORE_APP
+    // events that follow find nothing left to do
+    Map<ApplicationId, ApplicationStateDataPBImpl> appStates =
+        new LinkedHashMap<ApplicationId, ApplicationStateDataPBImpl>();
+    ApplicationState apptState;
+    while ((apptState = pendingAppStores.poll()) != null) {
+      ApplicationStateDataPBImpl appStateData =
+          new ApplicationStateDataPBImpl();
+      appStateData.setSubmitTime(apptState.getSubmitTime());
+      appStateData.setApplicationSubmissionContext(
+          apptState.getApplicationSubmissionContext());
+      appStateData.setUser(apptState.getUser());
+      appStates.put(apptState.getAppId(), appStateData);
+    }
+    if (appStates.isEmpty()) {
+      return;
+    }
+
+    LOG.info("Storing info for apps: " + appStates.keySet());
+    Map<ApplicationId, Exception> failures =
+        new HashMap<ApplicationId, Exception>();
+    try {
+      failures = storeApplicationStates(appStates);
+    } catch (RuntimeException e) {
+      for (ApplicationId appId : appStates.keySet()) {
+        failures.put(appId, e);
+      }
+    } finally {
+      for (ApplicationId appId : appStates.keySet()) {
+        Exception storedException = failures.get(appId);
+        if (storedException != null) {
+          if (isInState(STATE.STOPPED)) {
+            // writes cut short by the shutdown, not by a broken store; the
+            // RM is going away and must not fail the application for it
+            LOG.info("State store stopped while storing app: " + appId);
+            continue;
+          }
+          LOG.error("Error storing app: " + appId, storedException);
+        }
+        notifyDoneStoringApplication(appId, storedException);
+      }
+    }
+  }
   
   private synchronized void handleStoreEvent(RMStateStoreEvent event) {
     switch(event.getType()) {
-      case STORE_APP:
-        {
-          ApplicationState apptState =
-              ((RMStateStoreAppEvent) event).getAppState();
-          Exception storedException = null;
-          ApplicationStateDataPBImpl appStateData =
-              new ApplicationStateDataPBImpl();
-          appStateData.setSubmitTime(apptState.getSubmitTime());
-          appStateData.setApplicationSubmissionContext(
-              apptState.getApplicationSubmissionContext());
-          appStateData.setUser(apptState.getUser());
-          ApplicationId appId =
-              apptState.getApplicationSubmissionContext().getApplicationId();
-
-          LOG.info("Storing info for app: " + appId);
-          try {
-            storeApplicationState(appId.toString(), appStateData);
-          } catch (Exception e) {
-            LOG.error("Error storing app: " + appId, e);
-            storedException = e;
-          } finally {
-            notifyDoneStoringApplication(appId, storedException);
-          }
-        }
-        break;
       case STORE_APP_ATTEMPT:
         {
           ApplicationAttemptState attemptState = 
@@ -565,7 +620,11 @@ public abstract class RMStateStore extends AbstractService {
     
     @Override
     public void handle(RMStateStoreEvent event) {
-      handleStoreEvent(event);
+      if (event.getType() == RMStateStoreEventType.STORE_APP) {
+        storeApps();
+      } else {
+        handleStoreEvent(event);
+      }
     }
   }
 }
@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager.recovery;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.service.Service.STATE;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationSubmissionContext;
+import org.apache.hadoop.yarn.api.records.impl.pb.ApplicationSubmissionContextPBImpl;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
+import org.apache.hadoop.yarn.event.Dispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.server.resourcemanager.recovery.records.impl.pb.ApplicationStateDataPBImpl;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMAppStoredEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Stores applications in batches: through storeApplication() and the store's
+ * dispatcher, and directly with one and with several store threads.
+ */
+public class TestFileSystemRMStateStoreBatch {
+  private static final Log LOG =
+      LogFactory.getLog(TestFileSystemRMStateStoreBatch.class);
+
+  private static final int NUM_APPS = 500;
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "target/test-dir"),
+      TestFileSystemRMStateStoreBatch.class.getSimpleName());
+
+  private static Map<ApplicationId, ApplicationStateDataPBImpl> newBatch(
+      long clusterTimestamp) {
+    Map<ApplicationId, ApplicationStateDataPBImpl> appStates =
+        new LinkedHashMap<ApplicationId, ApplicationStateDataPBImpl>();
+    for (int i = 1; i <= NUM_APPS; i++) {
+      ApplicationId appId = ApplicationId.newInstance(clusterTimestamp, i);
+      ApplicationSubmissionContext context =
+          new ApplicationSubmissionContextPBImpl();
+      context.setApplicationId(appId);
+      ApplicationStateDataPBImpl appState = new ApplicationStateDataPBImpl();
+      appState.setSubmitTime(System.currentTimeMillis());
+      appState.setUser("user" + (i % 10));
+      appState.setApplicationSubmissionContext(context);
+      appStates.put(appId, appState);
+    }
+    return appStates;
+  }
+
+  /** Collects the events the store sends to the RM. */
+  private static class CapturingDispatcher implements Dispatcher {
+    private final List<Event> events =
+        Collections.synchronizedList(new ArrayList<Event>());
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public EventHandler getEventHandler() {
+      return new EventHandler<Event>() {
+        @Override
+        public void handle(Event event) {
+          events.add(event);
+        }
+      };
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void register(Class<? extends Enum> eventType,
+        EventHandler handler) {
+    }
+
+    List<RMAppStoredEvent> getStoredEvents() {
+      List<RMAppStoredEvent> stored = new ArrayList<RMAppStoredEvent>();
+      synchronized (events) {
+        for (Event event : events) {
+          if (event instanceof RMAppStoredEvent) {
+            stored.add((RMAppStoredEvent) event);
+          }
+        }
+      }
+      return stored;
+    }
+
+    List<RMAppStoredEvent> awaitStoredEvents(int count) throws Exception {
+      List<RMAppStoredEvent> stored = getStoredEvents();
+      while (stored.size() < count) {
+        Thread.sleep(10);
+        stored = getStoredEvents();
+      }
+      return stored;
+    }
+  }
+
+  /**
+   * Holds every batch until <code>gate</code> opens, so that applications
+   * queue up behind the first one.
+   */
+  private static class GatedStore extends FileSystemRMStateStore {
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<Integer> batchSizes =
+        Collections.synchronizedList(new ArrayList<Integer>());
+    private volatile boolean failBatches;
+
+    @Override
+    protected Map<ApplicationId, Exception> storeApplicationStates(
+        Map<ApplicationId, ApplicationStateDataPBImpl> appStates) {
+      batchSizes.add(appStates.size());
+      entered.countDown();
+      // the dispatcher thread is interrupted when the store stops
+      Uninterruptibles.awaitUninterruptibly(gate);
+      if (failBatches) {
+        Map<ApplicationId, Exception> failures =
+            new HashMap<ApplicationId, Exception>();
+        for (ApplicationId appId : appStates.keySet()) {
+          failures.put(appId, new IOException("Filesystem closed"));
+        }
+        return failures;
+      }
+      return super.storeApplicationStates(appStates);
+    }
+  }
+
+  private static RMApp newApp(long clusterTimestamp, int id) {
+    ApplicationSubmissionContext context =
+        new ApplicationSubmissionContextPBImpl();
+    context.setApplicationId(ApplicationId.newInstance(clusterTimestamp, id));
+    RMApp app = mock(RMApp.class);
+    when(app.getApplicationSubmissionContext()).thenReturn(context);
+    when(app.getSubmitTime()).thenReturn(System.currentTimeMillis());
+    when(app.getUser()).thenReturn("user" + (id % 10));
+    return app;
+  }
+
+  private static GatedStore newGatedStore(String name,
+      Dispatcher rmDispatcher) {
+    File storeDir = new File(TEST_DIR, name);
+    FileUtil.fullyDelete(storeDir);
+    Configuration conf = new YarnConfiguration();
+    conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI,
+        storeDir.getAbsoluteFile().toURI().toString());
+    conf.setInt(FileSystemRMStateStore.FS_RM_STATE_STORE_STORE_THREADS, 4);
+    GatedStore store = new GatedStore();
+    store.setRMDispatcher(rmDispatcher);
+    store.init(conf);
+    store.start();
+    return store;
+  }
+
+  @Test(timeout = 60000)
+  public void testQueuedAppsStoredInOneBatch() throws Exception {
+    CapturingDispatcher rmDispatcher = new CapturingDispatcher();
+    GatedStore store = newGatedStore("queued", rmDispatcher);
+    try {
+      store.storeApplication(newApp(1L, 1));
+      store.entered.await();
+      // these queue up while the first batch is held
+      for (int i = 2; i <= NUM_APPS; i++) {
+        store.storeApplication(newApp(1L, i));
+      }
+      store.gate.countDown();
+
+      List<RMAppStoredEvent> stored = rmDispatcher.awaitStoredEvents(NUM_APPS);
+      Set<ApplicationId> storedIds = new HashSet<ApplicationId>();
+      for (RMAppStoredEvent event : stored) {
+        Assert.assertNull(event.getStoredException());
+        storedIds.add(event.getApplicationId());
+      }
+      // exactly one notification per application
+      Assert.assertEquals(NUM_APPS, stored.size());
+      Assert.assertEquals(NUM_APPS, storedIds.size());
+
+      // the STORE_APP events of the queued applications after the one that
+      // stored them all find nothing left to do
+      Thread.sleep(500);
+      Assert.assertEquals(NUM_APPS, rmDispatcher.getStoredEvents().size());
+      Assert.assertEquals(2, store.batchSizes.size());
+      Assert.assertEquals(1, store.batchSizes.get(0).intValue());
+      Assert.assertEquals(NUM_APPS - 1, store.batchSizes.get(1).intValue());
+
+      Path appRoot = new Path(store.fsWorkingPath, "FSRMStateRoot/RMAppRoot");
+      FileSystem fs = appRoot.getFileSystem(store.getConfig());
+      for (ApplicationId appId : storedIds) {
+        Path appDir = new Path(appRoot, appId.toString());
+        Assert.assertTrue(fs.exists(new Path(appDir, appId.toString())));
+      }
+    } finally {
+      store.gate.countDown();
+      store.stop();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testNoFailureNotifiedAfterStop() throws Exception {
+    CapturingDispatcher rmDispatcher = new CapturingDispatcher();
+    final GatedStore store = newGatedStore("stopped", rmDispatcher);
+    store.failBatches = true;
+    store.storeApplication(newApp(2L, 1));
+    store.entered.await();
+
+    // stopping waits for the dispatcher thread, which is held in the batch
+    Thread stopper = new Thread() {
+      @Override
+      public void run() {
+        store.stop();
+      }
+    };
+    stopper.start();
+    while (!store.isInState(STATE.STOPPED)) {
+      Thread.sleep(10);
+    }
+    store.gate.countDown();
+    stopper.join();
+
+    // the write failed because of the shutdown, the app must not fail
+    Assert.assertTrue(rmDispatcher.getStoredEvents().isEmpty());
+  }
+
+  private long storeBatch(int storeThreads) throws Exception {
+    File storeDir = new File(TEST_DIR, "threads-" + storeThreads);
+    FileUtil.fullyDelete(storeDir);
+    Configuration conf = new YarnConfiguration();
+    conf.set(YarnConfiguration.FS_RM_STATE_STORE_URI,
+        storeDir.getAbsoluteFile().toURI().toString());
+    conf.setInt(FileSystemRMStateStore.FS_RM_STATE_STORE_STORE_THREADS,
+        storeThreads);
+    FileSystemRMStateStore store = new FileSystemRMStateStore();
+    store.init(conf);
+    store.start();
+    try {
+      Map<ApplicationId, ApplicationStateDataPBImpl> appStates =
+          newBatch(storeThreads);
+      long start = System.nanoTime();
+      Map<ApplicationId, Exception> failures =
+          store.storeApplicationStates(appStates);
+      long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertTrue("failed to store " + failures.keySet(),
+          failures.isEmpty());
+
+      Path appRoot = new Path(store.fsWorkingPath, "FSRMStateRoot/RMAppRoot");
+      FileSystem fs = appRoot.getFileSystem(conf);
+      for (ApplicationId appId : appStates.keySet()) {
+        Path appDir = new Path(appRoot, appId.toString());
+        Assert.assertTrue(fs.exists(new Path(appDir, appId.toString())));
+      }
+      LOG.info("Stored " + NUM_APPS + " apps with " + storeThreads
+          + " store threads in " + millis + "ms");
+      return millis;
+    } finally {
+      store.stop();
+    }
+  }
+
+  @Test(timeout = 300000)
+  public void testBatchStore() throws Exception {
+    long sequential = storeBatch(1);
+    long parallel = storeBatch(8);
+    LOG.info("8 store threads took " + parallel + "ms for what 1 thread"
+        + " stored in " + sequential + "ms");
+  }
+}
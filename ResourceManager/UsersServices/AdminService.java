@@ -182,6 +182,7 @@ public class AdminService extends AbstractService implements ResourceManagerAdmi
     UserGroupInformation user = checkAcls("refreshQueues");
     try {
       scheduler.reinitialize(conf, this.rmContext);
+      clientRMService.invalidateAccessCache();
       RMAuditLogger.logSuccess(user.getShortUserName(), "refreshQueues", 
           "AdminService");
       return recordFactory.newRecordInstance(RefreshQueuesResponse.class);
@@ -218,6 +219,7 @@ public class AdminService extends AbstractService implements ResourceManagerAdmi
     UserGroupInformation user = checkAcls("refreshSuperUserGroupsConfiguration");
     
     ProxyUsers.refreshSuperUserGroupsConfiguration(new Configuration());
+    clientRMService.invalidateAccessCache();
     RMAuditLogger.logSuccess(user.getShortUserName(),
         "refreshSuperUserGroupsConfiguration", "AdminService");
     
@@ -231,6 +233,7 @@ public class AdminService extends AbstractService implements ResourceManagerAdmi
     UserGroupInformation user = checkAcls("refreshUserToGroupsMappings");
     
     Groups.getUserToGroupsMappingService().refresh();
+    clientRMService.invalidateAccessCache();
     RMAuditLogger.logSuccess(user.getShortUserName(), 
         "refreshUserToGroupsMappings", "AdminService");
 
@@ -247,6 +250,7 @@ public class AdminService extends AbstractService implements ResourceManagerAdmi
     adminAcl = new AccessControlList(conf.get(
         YarnConfiguration.YARN_ADMIN_ACL,
         YarnConfiguration.DEFAULT_YARN_ADMIN_ACL));
+    clientRMService.invalidateAccessCache();
     RMAuditLogger.logSuccess(user.getShortUserName(), "refreshAdminAcls", 
         "AdminService");
 
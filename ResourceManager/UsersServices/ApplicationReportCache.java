@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ApplicationReport;
+import org.apache.hadoop.yarn.api.records.YarnApplicationState;
+import org.apache.hadoop.yarn.api.records.impl.pb.ApplicationReportPBImpl;
+import org.apache.hadoop.yarn.proto.YarnProtos.ApplicationReportProto;
+import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
+
+/**
+ * Caches {@link ApplicationReport}s of the {@link ClientRMService}.
+ *
+ * The access-restricted view only carries fields that change with an
+ * application transition, so it is cached per {@link RMAppIndex} version.
+ * The full view also carries progress and resource usage, which move on
+ * without the application noticing, so it is only cached once the
+ * application completed, and only from a report built for a client user:
+ * one built without a user, as for queue listings, never had the chance
+ * to carry a client token. Reports are kept as protobufs and handed out in a
+ * new record on every call.
+ */
+class ApplicationReportCache {
+
+  // cache entries tolerated for apps already gone from the RM map
+  static final int PURGE_SLACK = 1000;
+
+  private static final EnumSet<YarnApplicationState> COMPLETED_STATES =
+      EnumSet.of(YarnApplicationState.FINISHED, YarnApplicationState.FAILED,
+          YarnApplicationState.KILLED);
+
+  private static class CachedReports {
+    private final RMApp app;
+    private final long version;
+    private volatile ApplicationReportProto restricted;
+    private volatile ApplicationReportProto full;
+
+    CachedReports(RMApp app, long version) {
+      this.app = app;
+      this.version = version;
+    }
+  }
+
+  private final RMContext rmContext;
+  private final ConcurrentMap<ApplicationId, CachedReports> reports =
+      new ConcurrentHashMap<ApplicationId, CachedReports>();
+
+  ApplicationReportCache(RMContext rmContext) {
+    this.rmContext = rmContext;
+  }
+
+  ApplicationReport getReport(RMApp app, String clientUserName,
+      boolean allowAccess) {
+    ApplicationId appId = app.getApplicationId();
+    // read the version before building, a report built after a concurrent
+    // transition is then filed under the older version and rebuilt
+    long version = rmContext.getRMAppIndex().getVersion(appId);
+    if (version < 0) {
+      return app.createAndGetApplicationReport(clientUserName, allowAccess);
+    }
+    CachedReports cached = reports.get(appId);
+    if (cached == null || cached.app != app || cached.version != version) {
+      cached = new CachedReports(app, version);
+      reports.put(appId, cached);
+      if (reports.size() > rmContext.getRMApps().size() + PURGE_SLACK) {
+        purgeRemoved();
+      }
+    }
+
+    ApplicationReportProto proto = allowAccess ? cached.full
+        : cached.restricted;
+    if (proto != null) {
+      return new ApplicationReportPBImpl(proto);
+    }
+    ApplicationReport report =
+        app.createAndGetApplicationReport(clientUserName, allowAccess);
+    if (!(report instanceof ApplicationReportPBImpl)) {
+      return report;
+    }
+    if (!allowAccess) {
+      cached.restricted = ((ApplicationReportPBImpl) report).getProto();
+    } else if (clientUserName != null
+        && COMPLETED_STATES.contains(report.getYarnApplicationState())
+        && report.getClientToAMToken() == null) {
+      cached.full = ((ApplicationReportPBImpl) report).getProto();
+    }
+    return report;
+  }
+
+  private void purgeRemoved() {
+    ConcurrentMap<ApplicationId, RMApp> apps = rmContext.getRMApps();
+    for (Iterator<CachedReports> it = reports.values().iterator();
+        it.hasNext();) {
+      CachedReports cached = it.next();
+      if (apps.get(cached.app.getApplicationId()) != cached.app) {
+        it.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Per-user admission control of the {@link ClientRMService}. Every user has
+ * a token bucket refilled at <code>callsPerSecond</code> and holding at most
+ * <code>burst</code> tokens; a call costs the weight of its class, so a
+ * listing loop drains the bucket much faster than lookups do. Write calls
+ * (submit, kill, tokens) may run the bucket into debt of up to one burst,
+ * so a user's own reads never lock out their writes.
+ */
+class ClientCallThrottle {
+
+  enum CallClass {
+    WRITE, READ, LIST
+  }
+
+  // buckets of users that stopped calling are dropped after this long
+  private static final long IDLE_BUCKET_EXPIRY_MINUTES = 10;
+
+  private static class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double callsPerSecond, double burst) {
+      this.tokensPerNano = callsPerSecond / TimeUnit.SECONDS.toNanos(1);
+      this.burst = burst;
+      this.tokens = burst;
+      this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return 0 if the call is admitted, otherwise how many milliseconds
+     *         until it would be
+     */
+    synchronized long take(double cost, boolean allowDebt) {
+      // a listing call worth more than a full bucket could never be admitted
+      cost = Math.min(cost, burst);
+      long now = System.nanoTime();
+      tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+      lastRefill = now;
+      if (tokens >= cost || (allowDebt && tokens - cost >= -burst)) {
+        tokens -= cost;
+        return 0;
+      }
+      return Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+          (long) ((cost - tokens) / tokensPerNano)));
+    }
+  }
+
+  private final double listWeight;
+  private final LoadingCache<String, TokenBucket> buckets;
+
+  ClientCallThrottle(final double callsPerSecond, final int burst,
+      double listWeight) {
+    this.listWeight = listWeight;
+    this.buckets = CacheBuilder.newBuilder()
+        .expireAfterAccess(IDLE_BUCKET_EXPIRY_MINUTES, TimeUnit.MINUTES)
+        .build(new CacheLoader<String, TokenBucket>() {
+          @Override
+          public TokenBucket load(String user) {
+            return new TokenBucket(callsPerSecond, burst);
+          }
+        });
+  }
+
+  /**
+   * Charges the user for a call.
+   * @return 0 if the call is admitted, otherwise the suggested backoff in
+   *         milliseconds
+   */
+  long admit(String user, CallClass callClass) {
+    TokenBucket bucket;
+    try {
+      bucket = buckets.get(user);
+    } catch (ExecutionException e) {
+      // the loader cannot fail
+      return 0;
+    }
+    return bucket.take(callClass == CallClass.LIST ? listWeight : 1,
+        callClass == CallClass.WRITE);
+  }
+}
@@ -25,13 +25,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.ipc.Server;
@@ -65,6 +70,7 @@ import org.apache.hadoop.yarn.api.protocolrecords.RenewDelegationTokenRequest;
 import org.apache.hadoop.yarn.api.protocolrecords.RenewDelegationTokenResponse;
 import org.apache.hadoop.yarn.api.protocolrecords.SubmitApplicationRequest;
 import org.apache.hadoop.yarn.api.protocolrecords.SubmitApplicationResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.impl.pb.GetNewApplicationResponsePBImpl;
 import org.apache.hadoop.yarn.api.records.ApplicationAccessType;
 import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ApplicationReport;
@@ -79,17 +85,20 @@ import org.apache.hadoop.yarn.api.records.YarnClusterMetrics;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.exceptions.ApplicationNotFoundException;
 import org.apache.hadoop.yarn.exceptions.YarnException;
+import org.apache.hadoop.yarn.exceptions.YarnRuntimeException;
 import org.apache.hadoop.yarn.factories.RecordFactory;
 import org.apache.hadoop.yarn.factory.providers.RecordFactoryProvider;
 import org.apache.hadoop.yarn.ipc.RPCUtil;
 import org.apache.hadoop.yarn.ipc.YarnRPC;
+import org.apache.hadoop.yarn.proto.YarnProtos.ApplicationIdProto;
+import org.apache.hadoop.yarn.proto.YarnServiceProtos.GetNewApplicationResponseProto;
 import org.apache.hadoop.yarn.security.client.RMDelegationTokenIdentifier;
 import org.apache.hadoop.yarn.server.resourcemanager.RMAuditLogger.AuditConstants;
+import org.apache.hadoop.yarn.server.resourcemanager.metrics.ClientRMServiceMetrics;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMApp;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMAppEvent;
 import org.apache.hadoop.yarn.server.resourcemanager.rmapp.RMAppEventType;
 import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
-import org.apache.hadoop.yarn.server.resourcemanager.scheduler.SchedulerNodeReport;
 import org.apache.hadoop.yarn.server.resourcemanager.scheduler.YarnScheduler;
 import org.apache.hadoop.yarn.server.resourcemanager.security.QueueACLsManager;
 import org.apache.hadoop.yarn.server.resourcemanager.security.RMDelegationTokenSecretManager;
@@ -98,6 +107,9 @@ import org.apache.hadoop.yarn.server.security.ApplicationACLsManager;
 import org.apache.hadoop.yarn.server.utils.BuilderUtils;
 import org.apache.hadoop.yarn.util.Records;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 
 /**
  * The client interface to the Resource Manager. This module handles all the rpc
@@ -106,12 +118,48 @@ import org.apache.hadoop.yarn.util.Records;
  */
 public class ClientRMService extends AbstractService implements
     ApplicationClientProtocol {
+
+  /**
+   * How stale the cluster metrics and node reports served to clients may
+   * be, 0 to always read the live state.
+   */
+  public static final String RM_CLIENT_CLUSTER_SNAPSHOT_MAX_AGE_MS =
+      YarnConfiguration.RM_PREFIX + "client.cluster-snapshot.max-age-ms";
+  public static final long DEFAULT_RM_CLIENT_CLUSTER_SNAPSHOT_MAX_AGE_MS = 0;
+
+  /**
+   * Calls per second each user may make, 0 for no limit. Listing calls
+   * count as several calls, see
+   * {@link #RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT}.
+   */
+  public static final String RM_CLIENT_RATE_LIMIT_CALLS_PER_SECOND =
+      YarnConfiguration.RM_PREFIX + "client.rate-limit.calls-per-second";
+  public static final float DEFAULT_RM_CLIENT_RATE_LIMIT_CALLS_PER_SECOND = 0;
+
+  /** Calls a user may make at once after being idle, 0 for one second. */
+  public static final String RM_CLIENT_RATE_LIMIT_BURST =
+      YarnConfiguration.RM_PREFIX + "client.rate-limit.burst";
+  public static final int DEFAULT_RM_CLIENT_RATE_LIMIT_BURST = 0;
+
+  /**
+   * How many calls getApplications, getClusterNodes and getQueueInfo with
+   * applications count as.
+   */
+  public static final String RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT =
+      YarnConfiguration.RM_PREFIX + "client.rate-limit.listing-weight";
+  public static final float DEFAULT_RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT = 10;
+
+  // bound of the cached VIEW_APP decisions
+  static final int MAX_VIEW_ACCESS_DECISIONS = 10000;
+
   //Ӧñб
   private static final ArrayList<ApplicationReport> EMPTY_APPS_REPORT = new ArrayList<ApplicationReport>();
   //־߶
   private static final Log LOG = LogFactory.getLog(ClientRMService.class);
 
   final private AtomicInteger applicationCounter = new AtomicInteger(0);
+  //getNewApplicationӦвĲ,Դ仯ʱؽ
+  private volatile NewApplicationTemplate newApplicationTemplate;
   //yarn
   final private YarnScheduler scheduler;
   //ԴĶ󣬿ͻ˿ԴӴĶлȡ
@@ -127,6 +175,19 @@ public class ClientRMService extends AbstractService implements
   //Ӧ÷Ȩ޿ƹ
   private final ApplicationACLsManager applicationsACLsManager;
   private final QueueACLsManager queueACLsManager;
+  //Ӧñ滺
+  private final ApplicationReportCache reportCache;
+  //ȺռЧʱ,Ϊ0ʱʹÿ
+  private long clusterSnapshotMaxAgeMs;
+  private volatile ClusterSnapshot clusterSnapshot;
+  private final ReentrantLock clusterSnapshotLock = new ReentrantLock();
+  //Ӧò鿴Ȩж,ACLˢʱͨ汾ʧЧ
+  private Cache<AccessKey, Boolean> viewAccessCache;
+  private final AtomicLong aclVersion = new AtomicLong();
+  //û,δʱΪnull
+  private ClientCallThrottle callThrottle;
+  private final ClientRMServiceMetrics metrics =
+      ClientRMServiceMetrics.getMetrics();
 
   public ClientRMService(RMContext rmContext, YarnScheduler scheduler,
       RMAppManager rmAppManager, ApplicationACLsManager applicationACLsManager,
@@ -139,11 +200,45 @@ public class ClientRMService extends AbstractService implements
     this.applicationsACLsManager = applicationACLsManager;
     this.queueACLsManager = queueACLsManager;
     this.rmDTSecretManager = rmDTSecretManager;
+    this.reportCache = new ApplicationReportCache(rmContext);
   }
 
   @Override
   protected void serviceInit(Configuration conf) throws Exception {
     clientBindAddress = getBindAddress(conf);
+    clusterSnapshotMaxAgeMs = conf.getLong(
+        RM_CLIENT_CLUSTER_SNAPSHOT_MAX_AGE_MS,
+        DEFAULT_RM_CLIENT_CLUSTER_SNAPSHOT_MAX_AGE_MS);
+    float callsPerSecond = conf.getFloat(RM_CLIENT_RATE_LIMIT_CALLS_PER_SECOND,
+        DEFAULT_RM_CLIENT_RATE_LIMIT_CALLS_PER_SECOND);
+    if (callsPerSecond > 0) {
+      int burst = conf.getInt(RM_CLIENT_RATE_LIMIT_BURST,
+          DEFAULT_RM_CLIENT_RATE_LIMIT_BURST);
+      float listingWeight = conf.getFloat(RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT,
+          DEFAULT_RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT);
+      if (burst < 0 || listingWeight < 1) {
+        throw new YarnRuntimeException("Invalid Configuration. "
+            + RM_CLIENT_RATE_LIMIT_BURST + " should not be negative and "
+            + RM_CLIENT_RATE_LIMIT_LISTING_WEIGHT
+            + " should be at least 1.");
+      }
+      burst = burst == 0 ? (int) Math.ceil(callsPerSecond) : burst;
+      // a listing call must fit into a full bucket
+      burst = Math.max(burst, (int) Math.ceil(listingWeight));
+      callThrottle = new ClientCallThrottle(callsPerSecond, burst,
+          listingWeight);
+      LOG.info("Limiting client calls to " + callsPerSecond
+          + " per second and user, burst " + burst);
+    }
+    // decisions depend on group membership, keep them no longer than the
+    // groups themselves are cached
+    viewAccessCache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_VIEW_ACCESS_DECISIONS)
+        .expireAfterWrite(conf.getLong(
+            CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_SECS,
+            CommonConfigurationKeys.HADOOP_SECURITY_GROUPS_CACHE_SECS_DEFAULT),
+            TimeUnit.SECONDS)
+        .build();
     super.serviceInit(conf);
   }
 
@@ -203,32 +298,162 @@ public class ClientRMService extends AbstractService implements
   private boolean checkAccess(UserGroupInformation callerUGI, String owner,
       ApplicationAccessType operationPerformed,
       RMApp application) {
-    //Ӧ÷Ȩ֤
-    return applicationsACLsManager.checkAccess(callerUGI, operationPerformed,
-        owner, application.getApplicationId())
-        || queueACLsManager.checkAccess(callerUGI, QueueACL.ADMINISTER_QUEUE,
-            application.getQueue());
+    long start = System.nanoTime();
+    try {
+      //Ӧ÷Ȩ֤
+      return applicationsACLsManager.checkAccess(callerUGI,
+          operationPerformed, owner, application.getApplicationId())
+          || queueACLsManager.checkAccess(callerUGI,
+              QueueACL.ADMINISTER_QUEUE, application.getQueue());
+    } finally {
+      metrics.addAclCheckTime((System.nanoTime() - start) / 1000);
+    }
+  }
+
+  /**
+   * Cached {@link #checkAccess} for VIEW_APP. The decision only depends on
+   * the caller, the owner, the view ACL and the queue of the application,
+   * so a listing evaluates every distinct combination once.
+   */
+  private boolean checkViewAccess(UserGroupInformation callerUGI,
+      RMApp application) {
+    Map<ApplicationAccessType, String> acls = application
+        .getApplicationSubmissionContext().getAMContainerSpec()
+        .getApplicationACLs();
+    AccessKey key = new AccessKey(callerUGI.getUserName(),
+        application.getUser(),
+        acls == null ? null : acls.get(ApplicationAccessType.VIEW_APP),
+        application.getQueue(), aclVersion.get());
+    Boolean allowed = viewAccessCache.getIfPresent(key);
+    if (allowed != null) {
+      metrics.incrAclCacheHits();
+      return allowed;
+    }
+    allowed = checkAccess(callerUGI, application.getUser(),
+        ApplicationAccessType.VIEW_APP, application);
+    viewAccessCache.put(key, allowed);
+    return allowed;
+  }
+
+  /**
+   * Drops all cached access decisions, to be called whenever ACLs, queues
+   * or group mappings were refreshed.
+   */
+  void invalidateAccessCache() {
+    aclVersion.incrementAndGet();
+    viewAccessCache.invalidateAll();
   }
 
-  ApplicationId getNewApplicationId() {
-    ApplicationId applicationId = org.apache.hadoop.yarn.server.utils.BuilderUtils
-        .newApplicationId(recordFactory, ResourceManager.clusterTimeStamp,
-            applicationCounter.incrementAndGet());
-    LOG.info("Allocated new applicationId: " + applicationId.getId());
-    return applicationId;
+  private static final class AccessKey {
+    private final String caller;
+    private final String owner;
+    private final String viewAcl;
+    private final String queue;
+    private final long aclVersion;
+
+    AccessKey(String caller, String owner, String viewAcl, String queue,
+        long aclVersion) {
+      this.caller = caller;
+      this.owner = owner;
+      this.viewAcl = viewAcl;
+      this.queue = queue;
+      this.aclVersion = aclVersion;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = 31 + (caller == null ? 0 : caller.hashCode());
+      result = 31 * result + (owner == null ? 0 : owner.hashCode());
+      result = 31 * result + (viewAcl == null ? 0 : viewAcl.hashCode());
+      result = 31 * result + (queue == null ? 0 : queue.hashCode());
+      return 31 * result + (int) (aclVersion ^ (aclVersion >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof AccessKey)) {
+        return false;
+      }
+      AccessKey other = (AccessKey) obj;
+      return aclVersion == other.aclVersion
+          && equal(caller, other.caller) && equal(owner, other.owner)
+          && equal(viewAcl, other.viewAcl) && equal(queue, other.queue);
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * Applies the per-user rate limit to the call of the current RPC user and
+   * counts it. Calls from within the RM itself are not limited.
+   * @throws YarnException telling the user how long to back off
+   */
+  private void admitCall(ClientCallThrottle.CallClass callClass)
+      throws YarnException {
+    UserGroupInformation remoteUser = Server.getRemoteUser();
+    if (remoteUser == null) {
+      return;
+    }
+    if (callThrottle == null) {
+      return;
+    }
+    String user = remoteUser.getShortUserName();
+    metrics.incrUserCalls(user);
+    long backoffMs = callThrottle.admit(user, callClass);
+    if (backoffMs > 0) {
+      metrics.incrCallsThrottled();
+      throw RPCUtil.getRemoteException("Too many calls by user " + user
+          + ", retry in " + backoffMs + " ms");
+    }
   }
 
   @Override
   public GetNewApplicationResponse getNewApplication(
       GetNewApplicationRequest request) throws YarnException {
-    GetNewApplicationResponse response = recordFactory
-        .newRecordInstance(GetNewApplicationResponse.class);
-    response.setApplicationId(getNewApplicationId());
+    // reserving an id changes RM state like a submission does
+    admitCall(ClientCallThrottle.CallClass.WRITE);
+    int id = applicationCounter.incrementAndGet();
+    LOG.info("Allocated new applicationId: " + id);
+
     // Pick up min/max resource from scheduler...
-    response.setMaximumResourceCapability(scheduler
-        .getMaximumResourceCapability());       
-    
-    return response;
+    GetNewApplicationResponseProto template =
+        getNewApplicationTemplate(scheduler.getMaximumResourceCapability());
+    return new GetNewApplicationResponsePBImpl(template.toBuilder()
+        .setApplicationId(ApplicationIdProto.newBuilder()
+            .setClusterTimestamp(ResourceManager.clusterTimeStamp)
+            .setId(id))
+        .build());
+  }
+
+  /** The response fields that do not depend on the application id. */
+  private static final class NewApplicationTemplate {
+    private final Resource maximumCapability;
+    private final GetNewApplicationResponseProto proto;
+
+    NewApplicationTemplate(Resource maximumCapability,
+        GetNewApplicationResponseProto proto) {
+      this.maximumCapability = maximumCapability;
+      this.proto = proto;
+    }
+  }
+
+  private GetNewApplicationResponseProto getNewApplicationTemplate(
+      Resource maximumCapability) {
+    NewApplicationTemplate template = newApplicationTemplate;
+    if (template == null
+        || !template.maximumCapability.equals(maximumCapability)) {
+      GetNewApplicationResponse response = recordFactory
+          .newRecordInstance(GetNewApplicationResponse.class);
+      response.setMaximumResourceCapability(maximumCapability);
+      // the scheduler may update its maximum in place, keep a copy
+      template = new NewApplicationTemplate(Resource.newInstance(
+          maximumCapability.getMemory(), maximumCapability.getVirtualCores()),
+          ((GetNewApplicationResponsePBImpl) response).getProto());
+      newApplicationTemplate = template;
+    }
+    return template.proto;
   }
   
   /**
@@ -238,6 +463,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetApplicationReportResponse getApplicationReport(
       GetApplicationReportRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.READ);
     ApplicationId applicationId = request.getApplicationId();
 
     UserGroupInformation callerUGI;
@@ -256,11 +482,9 @@ public class ClientRMService extends AbstractService implements
           + applicationId + "' doesn't exist in RM.");
     }
 
-    boolean allowAccess = checkAccess(callerUGI, application.getUser(),
-        ApplicationAccessType.VIEW_APP, application);
-    ApplicationReport report =
-        application.createAndGetApplicationReport(callerUGI.getUserName(),
-            allowAccess);
+    boolean allowAccess = checkViewAccess(callerUGI, application);
+    ApplicationReport report = reportCache.getReport(application,
+        callerUGI.getUserName(), allowAccess);
 
     GetApplicationReportResponse response = recordFactory
         .newRecordInstance(GetApplicationReportResponse.class);
@@ -271,6 +495,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public SubmitApplicationResponse submitApplication(
       SubmitApplicationRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.WRITE);
     ApplicationSubmissionContext submissionContext = request
         .getApplicationSubmissionContext();
     ApplicationId applicationId = submissionContext.getApplicationId();
@@ -327,6 +552,11 @@ public class ClientRMService extends AbstractService implements
       //RMAppManagerύӦ
       rmAppManager.submitApplication(submissionContext,
           System.currentTimeMillis(), false, user);
+      // index right away, the START event may still be queued
+      RMApp submitted = rmContext.getRMApps().get(applicationId);
+      if (submitted != null) {
+        rmContext.getRMAppIndex().update(submitted);
+      }
 
       LOG.info("Application with id " + applicationId.getId() + 
           " submitted by user " + user);
@@ -350,6 +580,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public KillApplicationResponse forceKillApplication(
       KillApplicationRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.WRITE);
 
     ApplicationId applicationId = request.getApplicationId();
 
@@ -398,11 +629,14 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetClusterMetricsResponse getClusterMetrics(
       GetClusterMetricsRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.READ);
     GetClusterMetricsResponse response = recordFactory
         .newRecordInstance(GetClusterMetricsResponse.class);
     YarnClusterMetrics ymetrics = recordFactory
         .newRecordInstance(YarnClusterMetrics.class);
-    ymetrics.setNumNodeManagers(this.rmContext.getRMNodes().size());
+    ClusterSnapshot snapshot = getClusterSnapshot();
+    ymetrics.setNumNodeManagers(snapshot != null
+        ? snapshot.getNumNodeManagers() : this.rmContext.getRMNodes().size());
     response.setClusterMetrics(ymetrics);
     return response;
   }
@@ -410,6 +644,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetApplicationsResponse getApplications(
       GetApplicationsRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.LIST);
     UserGroupInformation callerUGI;
     try {
       callerUGI = UserGroupInformation.getCurrentUser();
@@ -422,24 +657,14 @@ public class ClientRMService extends AbstractService implements
     EnumSet<YarnApplicationState> applicationStates =
         request.getApplicationStates();
 
-    List<ApplicationReport> reports = new ArrayList<ApplicationReport>();
-    for (RMApp application : this.rmContext.getRMApps().values()) {
-      if (applicationTypes != null && !applicationTypes.isEmpty()) {
-        if (!applicationTypes.contains(application.getApplicationType())) {
-          continue;
-        }
-      }
-
-      if (applicationStates != null && !applicationStates.isEmpty()) {
-        if (!applicationStates.contains(application
-            .createApplicationState())) {
-          continue;
-        }
-      }
-      boolean allowAccess = checkAccess(callerUGI, application.getUser(),
-          ApplicationAccessType.VIEW_APP, application);
-      reports.add(application.createAndGetApplicationReport(
-          callerUGI.getUserName(), allowAccess));
+    List<RMApp> applications = this.rmContext.getRMAppIndex().queryApps(
+        applicationTypes, applicationStates, null, null);
+    List<ApplicationReport> reports =
+        new ArrayList<ApplicationReport>(applications.size());
+    for (RMApp application : applications) {
+      boolean allowAccess = checkViewAccess(callerUGI, application);
+      reports.add(reportCache.getReport(application, callerUGI.getUserName(),
+          allowAccess));
     }
 
     GetApplicationsResponse response =
@@ -451,18 +676,24 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetClusterNodesResponse getClusterNodes(GetClusterNodesRequest request)
       throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.LIST);
     GetClusterNodesResponse response = 
       recordFactory.newRecordInstance(GetClusterNodesResponse.class);
     EnumSet<NodeState> nodeStates = request.getNodeStates();
     if (nodeStates == null || nodeStates.isEmpty()) {
       nodeStates = EnumSet.allOf(NodeState.class);
     }
-    Collection<RMNode> nodes = RMServerUtils.queryRMNodes(rmContext,
-        nodeStates);
-    
-    List<NodeReport> nodeReports = new ArrayList<NodeReport>(nodes.size());
-    for (RMNode nodeInfo : nodes) {
-      nodeReports.add(createNodeReports(nodeInfo));
+    ClusterSnapshot snapshot = getClusterSnapshot();
+    List<NodeReport> nodeReports;
+    if (snapshot != null) {
+      nodeReports = snapshot.getNodeReports(nodeStates);
+    } else {
+      Collection<RMNode> nodes =
+          rmContext.getRMNodeStateIndex().queryRMNodes(nodeStates);
+      nodeReports = new ArrayList<NodeReport>(nodes.size());
+      for (RMNode nodeInfo : nodes) {
+        nodeReports.add(createNodeReports(nodeInfo));
+      }
     }
     response.setNodeReports(nodeReports);
     return response;
@@ -471,6 +702,9 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetQueueInfoResponse getQueueInfo(GetQueueInfoRequest request)
       throws YarnException {
+    admitCall(request.getIncludeApplications()
+        ? ClientCallThrottle.CallClass.LIST
+        : ClientCallThrottle.CallClass.READ);
     GetQueueInfoResponse response =
       recordFactory.newRecordInstance(GetQueueInfoResponse.class);
     try {
@@ -480,13 +714,14 @@ public class ClientRMService extends AbstractService implements
             request.getRecursive());
       List<ApplicationReport> appReports = EMPTY_APPS_REPORT;
       if (request.getIncludeApplications()) {
-        Collection<RMApp> apps = this.rmContext.getRMApps().values();
-        appReports = new ArrayList<ApplicationReport>(
-            apps.size());
+        // the child queues are only there if the request asked for them
+        List<String> queueNames = new ArrayList<String>();
+        addQueueNames(queueInfo, queueNames);
+        List<RMApp> apps =
+            this.rmContext.getRMAppIndex().queryAppsInQueues(queueNames);
+        appReports = new ArrayList<ApplicationReport>(apps.size());
         for (RMApp app : apps) {
-          if (app.getQueue().equals(queueInfo.getQueueName())) {
-            appReports.add(app.createAndGetApplicationReport(null, true));
-          }
+          appReports.add(reportCache.getReport(app, null, true));
         }
       }
       queueInfo.setApplications(appReports);
@@ -498,29 +733,54 @@ public class ClientRMService extends AbstractService implements
     return response;
   }
 
-  private NodeReport createNodeReports(RMNode rmNode) {    
-    SchedulerNodeReport schedulerNodeReport = 
-        scheduler.getNodeReport(rmNode.getNodeID());
-    Resource used = BuilderUtils.newResource(0, 0);
-    int numContainers = 0;
-    if (schedulerNodeReport != null) {
-      used = schedulerNodeReport.getUsedResource();
-      numContainers = schedulerNodeReport.getNumContainers();
-    } 
-    
-    NodeReport report = BuilderUtils.newNodeReport(rmNode.getNodeID(),
-        rmNode.getState(),
-        rmNode.getHttpAddress(), rmNode.getRackName(), used,
-        rmNode.getTotalCapability(), numContainers,
-        rmNode.getHealthReport(),
-        rmNode.getLastHealthReportTime());
-
-    return report;
+  /**
+   * @return a snapshot no older than the configured maximum age, or null if
+   *         clients are served the live state. Only one caller rebuilds an
+   *         expired snapshot, the others keep serving the previous one.
+   */
+  private ClusterSnapshot getClusterSnapshot() {
+    if (clusterSnapshotMaxAgeMs <= 0) {
+      return null;
+    }
+    ClusterSnapshot snapshot = clusterSnapshot;
+    if (snapshot != null && System.currentTimeMillis()
+        - snapshot.getCreationTime() < clusterSnapshotMaxAgeMs) {
+      return snapshot;
+    }
+    if (snapshot == null) {
+      clusterSnapshotLock.lock();
+    } else if (!clusterSnapshotLock.tryLock()) {
+      return snapshot;
+    }
+    try {
+      if (clusterSnapshot == snapshot) {
+        clusterSnapshot = ClusterSnapshot.create(rmContext, scheduler);
+      }
+      return clusterSnapshot;
+    } finally {
+      clusterSnapshotLock.unlock();
+    }
+  }
+
+  private static void addQueueNames(QueueInfo queueInfo,
+      List<String> queueNames) {
+    queueNames.add(queueInfo.getQueueName());
+    if (queueInfo.getChildQueues() != null) {
+      for (QueueInfo child : queueInfo.getChildQueues()) {
+        addQueueNames(child, queueNames);
+      }
+    }
+  }
+
+  private NodeReport createNodeReports(RMNode rmNode) {
+    // only rebuilt when the node has changed since the report was cached
+    return rmContext.getNodeReportCache().getNodeReport(rmNode, scheduler);
   }
 
   @Override
   public GetQueueUserAclsInfoResponse getQueueUserAcls(
       GetQueueUserAclsInfoRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.READ);
     GetQueueUserAclsInfoResponse response = 
       recordFactory.newRecordInstance(GetQueueUserAclsInfoResponse.class);
     response.setUserAclsInfoList(scheduler.getQueueUserAclInfo());
@@ -531,6 +791,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public GetDelegationTokenResponse getDelegationToken(
       GetDelegationTokenRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.WRITE);
     try {
 
       // Verify that the connection is kerberos authenticated
@@ -569,6 +830,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public RenewDelegationTokenResponse renewDelegationToken(
       RenewDelegationTokenRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.WRITE);
     try {
       if (!isAllowedDelegationTokenOp()) {
         throw new IOException(
@@ -594,6 +856,7 @@ public class ClientRMService extends AbstractService implements
   @Override
   public CancelDelegationTokenResponse cancelDelegationToken(
       CancelDelegationTokenRequest request) throws YarnException {
+    admitCall(ClientCallThrottle.CallClass.WRITE);
     try {
       if (!isAllowedDelegationTokenOp()) {
         throw new IOException(
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.yarn.server.resourcemanager;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.NodeReport;
+import org.apache.hadoop.yarn.api.records.NodeState;
+import org.apache.hadoop.yarn.api.records.impl.pb.NodeReportPBImpl;
+import org.apache.hadoop.yarn.proto.YarnProtos.NodeReportProto;
+import org.apache.hadoop.yarn.server.resourcemanager.rmnode.RMNode;
+import org.apache.hadoop.yarn.server.resourcemanager.scheduler.YarnScheduler;
+
+/**
+ * Immutable view of the cluster served by the {@link ClientRMService} to
+ * getClusterMetrics and getClusterNodes while it is fresh enough. Node
+ * reports are kept as protobufs and handed out in new records.
+ */
+class ClusterSnapshot {
+
+  private final long creationTime;
+  private final int numNodeManagers;
+  private final Map<NodeState, List<NodeReportProto>> nodeReports;
+
+  private ClusterSnapshot(long creationTime, int numNodeManagers,
+      Map<NodeState, List<NodeReportProto>> nodeReports) {
+    this.creationTime = creationTime;
+    this.numNodeManagers = numNodeManagers;
+    this.nodeReports = nodeReports;
+  }
+
+  static ClusterSnapshot create(RMContext rmContext,
+      YarnScheduler scheduler) {
+    long now = System.currentTimeMillis();
+    Map<NodeState, List<NodeReportProto>> nodeReports =
+        new EnumMap<NodeState, List<NodeReportProto>>(NodeState.class);
+    for (NodeState state : NodeState.values()) {
+      nodeReports.put(state, new ArrayList<NodeReportProto>());
+    }
+    NodeReportCache nodeReportCache = rmContext.getNodeReportCache();
+    for (RMNode node : rmContext.getRMNodeStateIndex().queryRMNodes(
+        EnumSet.allOf(NodeState.class))) {
+      NodeReport report = nodeReportCache.getNodeReport(node, scheduler);
+      if (report instanceof NodeReportPBImpl) {
+        nodeReports.get(node.getState()).add(
+            ((NodeReportPBImpl) report).getProto());
+      }
+    }
+    return new ClusterSnapshot(now, rmContext.getRMNodes().size(),
+        nodeReports);
+  }
+
+  long getCreationTime() {
+    return creationTime;
+  }
+
+  int getNumNodeManagers() {
+    return numNodeManagers;
+  }
+
+  List<NodeReport> getNodeReports(EnumSet<NodeState> states) {
+    List<NodeReport> reports = new ArrayList<NodeReport>();
+    for (NodeState state : states) {
+      for (NodeReportProto proto : nodeReports.get(state)) {
+        reports.add(new NodeReportPBImpl(proto));
+      }
+    }
+    return reports;
+  }
+}